@@ -0,0 +1,67 @@
+package fr.wseduc.mongodb.benchmarks;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import com.mongodb.client.model.Filters;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.wseduc.mongodb.AggregationsBuilder;
+
+/**
+ * Construction of aggregation pipelines with {@link AggregationsBuilder}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AggregationsBuilderBenchmark {
+
+	@Benchmark
+	public JsonObject reportingPipeline() {
+		return AggregationsBuilder.startWithCollection("timeline")
+				.withAllowDiskUse(true)
+				.withMatch(Filters.and(Filters.eq("type", "MESSAGERIE"), Filters.gte("date", 1700000000000L)))
+				.withUnwind("$recipients")
+				.withGroup(new JsonObject()
+						.put("_id", "$recipients.userId")
+						.put("count", new JsonObject().put("$sum", 1)))
+				.withSort(new JsonObject().put("count", -1))
+				.withLimit(100)
+				.getCommand();
+	}
+
+	@Benchmark
+	public JsonObject graphLookupPipeline() {
+		return AggregationsBuilder.startWithCollection("folders")
+				.withMatch(Filters.eq("owner", "7b4e1c2a-5f3d-4c8b-9a6e-2d1f0e9c8b7a"))
+				.withGraphLookup("$parentId", "parentId", "_id", "ancestors", Optional.of(10),
+						Optional.of("depth"), Optional.empty())
+				.withLookup("documents", "_id", "folderId", "documents")
+				.withProjection(new JsonObject().put("name", 1).put("ancestors._id", 1)
+						.put("documents", new JsonObject().put("$size", "$documents")))
+				.withAddFields(new JsonObject().put("path", new JsonObject()
+						.put("$map", new JsonObject().put("input", "$ancestors").put("in", "$$this.name"))))
+				.withSkip(20)
+				.withLimit(20)
+				.getCommand();
+	}
+
+	@Benchmark
+	public JsonArray pipelineOnly() {
+		return reportingPipeline().getJsonArray("pipeline");
+	}
+
+}
@@ -0,0 +1,70 @@
+package fr.wseduc.mongodb.benchmarks;
+
+import java.time.LocalDateTime;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.wseduc.mongodb.MongoDb;
+
+/**
+ * Date conversion helpers of {@link MongoDb}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DateHelpersBenchmark {
+
+	private Date date;
+	private LocalDateTime localDateTime;
+	private JsonObject isoDate;
+	private JsonObject epochDate;
+
+	@Setup
+	public void setUp() {
+		date = new Date(1700000000123L);
+		localDateTime = LocalDateTime.of(2023, 11, 14, 22, 13, 20, 123000000);
+		isoDate = MongoDb.toMongoDateISO(date);
+		epochDate = new JsonObject().put("$date", 1700000000123L);
+	}
+
+	@Benchmark
+	public JsonObject toMongoDateISO() {
+		return MongoDb.toMongoDateISO(date);
+	}
+
+	@Benchmark
+	public JsonObject toMongoDateISOLocalDateTime() {
+		return MongoDb.toMongoDateISO(localDateTime);
+	}
+
+	@Benchmark
+	public Date parseIsoDateString() {
+		return MongoDb.parseIsoDate(isoDate);
+	}
+
+	@Benchmark
+	public Date parseIsoDateEpoch() {
+		return MongoDb.parseIsoDate(epochDate);
+	}
+
+	@Benchmark
+	public String formatDate() {
+		return MongoDb.formatDate(date);
+	}
+
+}
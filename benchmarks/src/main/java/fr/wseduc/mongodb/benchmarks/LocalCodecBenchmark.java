@@ -0,0 +1,83 @@
+package fr.wseduc.mongodb.benchmarks;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.wseduc.mongodb.MongoDb;
+
+/**
+ * Compares the default copying JsonObject codec with {@link fr.wseduc.mongodb.JsonObjectLocalCodec}
+ * for large insert payloads and large find replies.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LocalCodecBenchmark {
+
+	private static final String ADDRESS = "benchmarks.persistor";
+
+	@Param({"false", "true"})
+	public boolean localCodec;
+
+	@Param({"10", "1000"})
+	public int documents;
+
+	private Vertx vertx;
+	private MessageConsumer<JsonObject> consumer;
+	private MongoDb mongo;
+	private JsonArray payload;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		vertx = Vertx.vertx();
+		payload = StubPersistor.documents(documents);
+		consumer = StubPersistor.register(vertx.eventBus(), ADDRESS, payload, localCodec);
+		mongo = MongoDb.getInstance();
+		mongo.init(vertx.eventBus(), ADDRESS, localCodec);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		consumer.unregister();
+		final CompletableFuture<Void> closed = new CompletableFuture<>();
+		vertx.close(ar -> closed.complete(null));
+		closed.get();
+	}
+
+	@Benchmark
+	public JsonObject insert() throws Exception {
+		final CompletableFuture<Message<JsonObject>> reply = new CompletableFuture<>();
+		mongo.insert("benchmarks", payload, reply::complete);
+		return reply.get().body();
+	}
+
+	@Benchmark
+	public JsonObject find() throws Exception {
+		final CompletableFuture<Message<JsonObject>> reply = new CompletableFuture<>();
+		mongo.find("benchmarks", new JsonObject().put("owner.userId", "user1"), reply::complete);
+		return reply.get().body();
+	}
+
+}
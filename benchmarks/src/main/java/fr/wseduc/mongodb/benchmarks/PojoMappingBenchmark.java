@@ -0,0 +1,66 @@
+package fr.wseduc.mongodb.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.wseduc.mongodb.PojoMapper;
+
+/**
+ * Mapping of a document to a POJO, {@link JsonObject#mapTo(Class)} against {@link PojoMapper}.
+ * Run with -prof gc to compare allocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PojoMappingBenchmark {
+
+	@JsonIgnoreProperties(ignoreUnknown = true)
+	public static class User {
+		public String login;
+		public String displayName;
+		public int age;
+		public boolean active;
+		public List<String> groups;
+	}
+
+	private JsonObject document;
+
+	@Setup
+	public void setUp() {
+		document = new JsonObject()
+				.put("_id", "5f1d7c1e9b1e8a3d4c2b1a00")
+				.put("login", "jean.dupont")
+				.put("displayName", "Jean Dupont")
+				.put("age", 42)
+				.put("active", true)
+				.put("groups", new JsonArray().add("teachers").add("class-6a").add("class-5b"));
+	}
+
+	@Benchmark
+	public User jsonObjectMapTo() {
+		return document.mapTo(User.class);
+	}
+
+	@Benchmark
+	public User pojoMapper() {
+		return PojoMapper.mapTo(document, User.class);
+	}
+
+}
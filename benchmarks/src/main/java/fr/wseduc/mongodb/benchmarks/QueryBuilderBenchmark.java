@@ -0,0 +1,84 @@
+package fr.wseduc.mongodb.benchmarks;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import com.mongodb.client.model.Filters;
+import io.vertx.core.json.JsonObject;
+import org.bson.conversions.Bson;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.wseduc.mongodb.MongoQueryBuilder;
+
+/**
+ * Conversion of driver {@link Filters} trees into JsonObject matchers. The jsonRoundTrip
+ * benchmarks measure the former conversion, through a strict extended JSON string.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBuilderBenchmark {
+
+	private static final JsonWriterSettings STRICT = JsonWriterSettings.builder()
+			.outputMode(JsonMode.STRICT)
+			.build();
+
+	private Bson simple;
+	private Bson complex;
+
+	@Setup
+	public void setUp() {
+		simple = Filters.eq("owner.userId", "7b4e1c2a-5f3d-4c8b-9a6e-2d1f0e9c8b7a");
+		complex = Filters.and(
+				Filters.or(
+						Filters.eq("owner.userId", "7b4e1c2a-5f3d-4c8b-9a6e-2d1f0e9c8b7a"),
+						Filters.in("shared.groupId", Arrays.asList("g1", "g2", "g3", "g4", "g5")),
+						Filters.elemMatch("shared", Filters.and(
+								Filters.eq("userId", "7b4e1c2a-5f3d-4c8b-9a6e-2d1f0e9c8b7a"),
+								Filters.eq("read", true)))),
+				Filters.gte("modified", new Date(1700000000000L)),
+				Filters.lt("size", 1024L * 1024L * 1024L * 4L),
+				Filters.ne("_id", new ObjectId("5f1e0c9b8a7d6e5f4c3b2a19")),
+				Filters.regex("name", Pattern.compile("^rep", Pattern.CASE_INSENSITIVE)),
+				Filters.exists("deleted", false),
+				Filters.nin("application", Arrays.asList("blog", "wiki")));
+	}
+
+	@Benchmark
+	public JsonObject buildSimple() {
+		return MongoQueryBuilder.build(simple);
+	}
+
+	@Benchmark
+	public JsonObject buildComplex() {
+		return MongoQueryBuilder.build(complex);
+	}
+
+	@Benchmark
+	public JsonObject jsonRoundTripSimple() {
+		return new JsonObject(simple.toBsonDocument().toJson(STRICT));
+	}
+
+	@Benchmark
+	public JsonObject jsonRoundTripComplex() {
+		return new JsonObject(complex.toBsonDocument().toJson(STRICT));
+	}
+
+}
@@ -0,0 +1,101 @@
+package fr.wseduc.mongodb.benchmarks;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.wseduc.mongodb.InMemoryMongoDbMetrics;
+import fr.wseduc.mongodb.MongoDb;
+import fr.wseduc.mongodb.MongoPreparedRequest;
+
+/**
+ * Full find and insert round trips through {@link MongoDb} and the event bus, against
+ * {@link StubPersistor}, with and without the request metrics.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoundTripBenchmark {
+
+	private static final String ADDRESS = "benchmarks.persistor";
+
+	@Param({"false", "true"})
+	public boolean metrics;
+
+	private Vertx vertx;
+	private MessageConsumer<JsonObject> consumer;
+	private MongoDb mongo;
+	private JsonObject document;
+	private MongoPreparedRequest preparedFind;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		vertx = Vertx.vertx();
+		consumer = StubPersistor.register(vertx.eventBus(), ADDRESS, StubPersistor.documents(20), false);
+		mongo = MongoDb.getInstance();
+		mongo.init(vertx.eventBus(), ADDRESS);
+		mongo.setMetrics(metrics ? new InMemoryMongoDbMetrics() : null);
+		document = StubPersistor.documents(1).getJsonObject(0);
+		preparedFind = mongo.prepareFind("benchmarks", new JsonObject().put("owner.userId", MongoPreparedRequest.param(0)),
+				new JsonObject().put("created", -1), new JsonObject().put("name", 1));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		mongo.setMetrics(null);
+		consumer.unregister();
+		final CompletableFuture<Void> closed = new CompletableFuture<>();
+		vertx.close(ar -> closed.complete(null));
+		closed.get();
+	}
+
+	@Benchmark
+	public JsonObject find() throws Exception {
+		final CompletableFuture<Message<JsonObject>> reply = new CompletableFuture<>();
+		mongo.find("benchmarks", new JsonObject().put("owner.userId", "user1"),
+				new JsonObject().put("created", -1), new JsonObject().put("name", 1), reply::complete);
+		return reply.get().body();
+	}
+
+	@Benchmark
+	public JsonObject findOne() throws Exception {
+		final CompletableFuture<Message<JsonObject>> reply = new CompletableFuture<>();
+		mongo.findOne("benchmarks", new JsonObject().put("_id", "id"), reply::complete);
+		return reply.get().body();
+	}
+
+	@Benchmark
+	public JsonObject insert() throws Exception {
+		final CompletableFuture<Message<JsonObject>> reply = new CompletableFuture<>();
+		mongo.insert("benchmarks", document, reply::complete);
+		return reply.get().body();
+	}
+
+	@Benchmark
+	public JsonObject preparedFind() throws Exception {
+		final CompletableFuture<Message<JsonObject>> reply = new CompletableFuture<>();
+		mongo.execute(preparedFind, reply::complete, "user1");
+		return reply.get().body();
+	}
+
+}
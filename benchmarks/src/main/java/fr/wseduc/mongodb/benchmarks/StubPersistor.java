@@ -0,0 +1,61 @@
+package fr.wseduc.mongodb.benchmarks;
+
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import fr.wseduc.mongodb.JsonObjectLocalCodec;
+
+/**
+ * Event bus consumer standing for the mongo persistor : it answers without any
+ * database access, so the benchmarks only measure the client side and event bus costs.
+ */
+public final class StubPersistor {
+
+	private StubPersistor() {
+	}
+
+	public static MessageConsumer<JsonObject> register(EventBus eb, String address, JsonArray findResults,
+			boolean localCodec) {
+		final DeliveryOptions replyOptions = new DeliveryOptions();
+		if (localCodec) {
+			replyOptions.setCodecName(JsonObjectLocalCodec.NAME);
+		}
+		return eb.localConsumer(address, message -> {
+			final JsonObject body = message.body();
+			final JsonObject reply = new JsonObject().put("status", "ok");
+			switch (body.getString("action", "")) {
+				case "find":
+					reply.put("results", findResults);
+					break;
+				case "findone":
+					reply.put("result", findResults.isEmpty() ? null : findResults.getJsonObject(0));
+					break;
+				case "insert":
+					reply.put("number", body.getBoolean("multiple", false) ?
+							body.getJsonArray("documents").size() : 1);
+					break;
+				default:
+					break;
+			}
+			message.reply(reply, replyOptions);
+		});
+	}
+
+	public static JsonArray documents(int count) {
+		final JsonArray documents = new JsonArray();
+		for (int i = 0; i < count; i++) {
+			documents.add(new JsonObject()
+					.put("_id", "0b9f5c3e-6d1a-4c1e-9b7a-" + String.format("%012d", i))
+					.put("name", "document " + i)
+					.put("index", i)
+					.put("created", new JsonObject().put("$date", 1700000000000L + i))
+					.put("tags", new JsonArray().add("a").add("b").add("c"))
+					.put("owner", new JsonObject().put("userId", "user" + (i % 50)).put("displayName", "User " + i)));
+		}
+		return documents;
+	}
+
+}
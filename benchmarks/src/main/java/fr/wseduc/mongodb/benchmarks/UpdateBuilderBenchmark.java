@@ -0,0 +1,52 @@
+package fr.wseduc.mongodb.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.wseduc.mongodb.MongoDb;
+import fr.wseduc.mongodb.MongoUpdateBuilder;
+
+/**
+ * Construction of update documents with {@link MongoUpdateBuilder}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UpdateBuilderBenchmark {
+
+	@Benchmark
+	public JsonObject setFields() {
+		return new MongoUpdateBuilder()
+				.set("name", "report.pdf")
+				.set("modified", MongoDb.now())
+				.set("metadata.size", 123456)
+				.unset("deleted")
+				.build();
+	}
+
+	@Benchmark
+	public JsonObject mixedOperators() {
+		return new MongoUpdateBuilder()
+				.set("modified", MongoDb.now())
+				.inc("version", 1)
+				.addToSet("tags", "archive")
+				.push("history", new JsonObject().put("action", "move").put("userId", "u1"), 0)
+				.pull("shared", new JsonObject().put("groupId", "g1"))
+				.rename("oldName", "name")
+				.build();
+	}
+
+}
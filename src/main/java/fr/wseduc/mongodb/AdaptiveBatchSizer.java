@@ -0,0 +1,46 @@
+package fr.wseduc.mongodb;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.vertx.core.json.JsonArray;
+
+/**
+ * Chooses cursor batch sizes so that a reply weighs about targetBytes, from a moving average
+ * of the document sizes observed per collection.
+ */
+class AdaptiveBatchSizer {
+
+	/** weight of the last observed batch in the moving average */
+	private static final double ALPHA = 0.2;
+
+	private final long targetBytes;
+	private final int minBatchSize;
+	private final int maxBatchSize;
+	private final Map<String, Double> averages = new ConcurrentHashMap<>();
+
+	AdaptiveBatchSizer(long targetBytes, int minBatchSize, int maxBatchSize) {
+		this.targetBytes = targetBytes;
+		this.minBatchSize = Math.max(1, minBatchSize);
+		this.maxBatchSize = Math.max(this.minBatchSize, maxBatchSize);
+	}
+
+	int batchSize(String collection) {
+		final Double average = averages.get(collection);
+		if (average == null) {
+			// nothing observed yet, start small
+			return minBatchSize;
+		}
+		final long size = (long) (targetBytes / Math.max(1.0, average));
+		return (int) Math.max(minBatchSize, Math.min(maxBatchSize, size));
+	}
+
+	void observe(String collection, JsonArray batch) {
+		if (batch == null || batch.isEmpty()) {
+			return;
+		}
+		final double average = (double) JsonSizeEstimator.estimate(batch) / batch.size();
+		averages.merge(collection, average, (previous, observed) -> previous + ALPHA * (observed - previous));
+	}
+
+}
@@ -0,0 +1,142 @@
+package fr.wseduc.mongodb;
+
+import java.util.ArrayDeque;
+import java.util.function.Function;
+
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Consumes an aggregation cursor batch by batch. The next getMore is sent while the
+ * current batch is processed, and at most prefetch fetched batches wait for the
+ * batch handler. getMores ask for the cursor batchSize of the aggregate command, or for
+ * every remaining document if it has none, as the legacy aggregateBatched.
+ */
+class AggregateBatchPipeline {
+
+	private final MongoDb mongo;
+	private final String collection;
+	private final int maxBatch;
+	private final int prefetch;
+	private final Function<JsonArray, Future<Void>> batchHandler;
+	private final Handler<Message<JsonObject>> handler;
+	private final ArrayDeque<JsonArray> ready = new ArrayDeque<>();
+
+	private int batchSize;
+	private long cursorId;
+	private int getMores;
+	private int batches;
+	private long documents;
+	private boolean fetching;
+	private boolean processing;
+	private boolean done;
+
+	AggregateBatchPipeline(MongoDb mongo, String collection, int maxBatch, int prefetch,
+			Function<JsonArray, Future<Void>> batchHandler, Handler<Message<JsonObject>> handler) {
+		this.mongo = mongo;
+		this.collection = collection;
+		this.maxBatch = maxBatch;
+		this.prefetch = Math.max(0, prefetch);
+		this.batchHandler = batchHandler;
+		this.handler = handler;
+	}
+
+	void start(JsonObject command) {
+		// not left to the adaptive batch size : smaller batches would return fewer documents
+		// within maxBatch getMores
+		final int commandBatchSize = command.getJsonObject("cursor", new JsonObject()).getInteger("batchSize", 0);
+		batchSize = commandBatchSize > 0 ? commandBatchSize : Integer.MAX_VALUE;
+		fetching = true;
+		mongo.aggregate(command, message -> onBatch(message, "firstBatch"));
+	}
+
+	private void onBatch(Message<JsonObject> message, String batchField) {
+		fetching = false;
+		final JsonObject body = message.body();
+		if (!MongoDb.isOk(body)) {
+			finish(new MongoResultMessage().error(MongoDb.toErrorStr(body)));
+			return;
+		}
+		final JsonObject cursor = body.getJsonObject("result", new JsonObject())
+				.getJsonObject("cursor", new JsonObject());
+		cursorId = cursor.getLong("id", 0L);
+		if (done) {
+			killCursor();
+			return;
+		}
+		final JsonArray batch = cursor.getJsonArray(batchField, new JsonArray());
+		if (!batch.isEmpty()) {
+			ready.add(batch);
+		}
+		pump();
+	}
+
+	private void pump() {
+		if (done) {
+			return;
+		}
+		if (!fetching && hasMore() && ready.size() < prefetch + (processing ? 0 : 1)) {
+			fetching = true;
+			getMores++;
+			mongo.getNextBatch(collection, cursorId, batchSize, message -> onBatch(message, "nextBatch"));
+		}
+		if (!processing && !ready.isEmpty()) {
+			final JsonArray batch = ready.poll();
+			processing = true;
+			batches++;
+			documents += batch.size();
+			final Future<Void> processed;
+			try {
+				processed = batchHandler.apply(batch);
+			} catch (RuntimeException e) {
+				finish(new MongoResultMessage().error(e.getMessage()));
+				return;
+			}
+			processed.onComplete(ar -> {
+				processing = false;
+				if (ar.failed()) {
+					finish(new MongoResultMessage().error(ar.cause().getMessage()));
+				} else {
+					pump();
+				}
+			});
+			return;
+		}
+		if (!processing && !fetching && ready.isEmpty()) {
+			// the cursor is still open when maxBatch getMores were sent
+			finish(new MongoResultMessage().put("batches", batches).put("count", documents)
+					.put("truncated", cursorId > 0L));
+		}
+	}
+
+	private void killCursor() {
+		if (cursorId > 0L) {
+			mongo.command(new JsonObject()
+					.put("killCursors", collection)
+					.put("cursors", new JsonArray().add(cursorId)).encode());
+		}
+	}
+
+	private boolean hasMore() {
+		return cursorId > 0L && getMores < maxBatch;
+	}
+
+	private void finish(MongoResultMessage result) {
+		if (done) {
+			return;
+		}
+		done = true;
+		ready.clear();
+		if (!fetching) {
+			// otherwise the cursor is released when the pending batch arrives
+			killCursor();
+		}
+		if (handler != null) {
+			handler.handle(result);
+		}
+	}
+
+}
@@ -0,0 +1,253 @@
+package fr.wseduc.mongodb;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Rewrites an aggregation pipeline into an equivalent one reading fewer documents : adjacent
+ * $match, $skip and $limit stages are merged, $limit is moved before the stages keeping the
+ * document count, and $match is moved before $sort, and before $project, $addFields, $set,
+ * $lookup and $unwind when they do not change the fields it reads. $match stages using
+ * operators not bound to fields, as $expr, $where or $text, are never moved.
+ */
+final class AggregationPipelineOptimizer {
+
+	private static final int MAX_PASSES = 1000;
+
+	private AggregationPipelineOptimizer() {
+	}
+
+	/**
+	 * @param optimizations receives a description of each change
+	 * @return the optimized pipeline, the stages are not copied
+	 */
+	static JsonArray optimize(JsonArray pipeline, List<String> optimizations) {
+		final List<JsonObject> stages = new ArrayList<>(pipeline.size());
+		for (int i = 0; i < pipeline.size(); i++) {
+			stages.add(pipeline.getJsonObject(i));
+		}
+		int passes = 0;
+		while (passes++ < MAX_PASSES && rewrite(stages, optimizations)) {
+			// until no rule applies
+		}
+		return new JsonArray(new ArrayList<>(stages));
+	}
+
+	private static boolean rewrite(List<JsonObject> stages, List<String> optimizations) {
+		for (int i = 1; i < stages.size(); i++) {
+			final JsonObject previous = stages.get(i - 1);
+			final JsonObject stage = stages.get(i);
+			final String previousName = name(previous);
+			final String stageName = name(stage);
+			if ("$match".equals(stageName) && "$match".equals(previousName)) {
+				stages.set(i - 1, new JsonObject().put("$match",
+						and(previous.getJsonObject("$match"), stage.getJsonObject("$match"))));
+				stages.remove(i);
+				optimizations.add("merged adjacent $match stages");
+				return true;
+			}
+			if ("$skip".equals(stageName) && "$skip".equals(previousName) && isCount(previous, stage)) {
+				stages.set(i - 1, new JsonObject().put("$skip",
+						previous.getLong("$skip") + stage.getLong("$skip")));
+				stages.remove(i);
+				optimizations.add("merged adjacent $skip stages");
+				return true;
+			}
+			if ("$limit".equals(stageName) && "$limit".equals(previousName) && isCount(previous, stage)) {
+				stages.set(i - 1, new JsonObject().put("$limit",
+						Math.min(previous.getLong("$limit"), stage.getLong("$limit"))));
+				stages.remove(i);
+				optimizations.add("merged adjacent $limit stages");
+				return true;
+			}
+			if ("$limit".equals(stageName) && keepsCount(previousName)) {
+				swap(stages, i);
+				optimizations.add("moved $limit before " + previousName);
+				return true;
+			}
+			if ("$match".equals(stageName) && canMoveBefore(stage.getJsonObject("$match"), previous, previousName)) {
+				swap(stages, i);
+				optimizations.add("moved $match before " + previousName);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String name(JsonObject stage) {
+		return stage.size() == 1 ? stage.fieldNames().iterator().next() : null;
+	}
+
+	private static boolean isCount(JsonObject previous, JsonObject stage) {
+		return previous.getValue(name(previous)) instanceof Number && stage.getValue(name(stage)) instanceof Number;
+	}
+
+	private static boolean keepsCount(String stageName) {
+		return "$project".equals(stageName) || "$addFields".equals(stageName) || "$set".equals(stageName) ||
+				"$lookup".equals(stageName);
+	}
+
+	private static void swap(List<JsonObject> stages, int i) {
+		final JsonObject stage = stages.get(i);
+		stages.set(i, stages.get(i - 1));
+		stages.set(i - 1, stage);
+	}
+
+	private static JsonObject and(JsonObject first, JsonObject second) {
+		final JsonArray clauses = new JsonArray();
+		for (JsonObject query : new JsonObject[] { first, second }) {
+			if (query.size() == 1 && query.getValue("$and") instanceof JsonArray) {
+				clauses.addAll(query.getJsonArray("$and"));
+			} else if (!query.isEmpty()) {
+				clauses.add(query);
+			}
+		}
+		if (clauses.size() == 1) {
+			return clauses.getJsonObject(0);
+		}
+		return clauses.isEmpty() ? new JsonObject() : new JsonObject().put("$and", clauses);
+	}
+
+	private static boolean canMoveBefore(JsonObject match, JsonObject previous, String previousName) {
+		if (match == null || previousName == null) {
+			return false;
+		}
+		final Set<String> fields = new HashSet<>();
+		if (!collectFields(match, fields)) {
+			return false;
+		}
+		switch (previousName) {
+			case "$sort":
+				return true;
+			case "$addFields":
+			case "$set":
+				return previous.getValue(previousName) instanceof JsonObject &&
+						!anyRelated(previous.getJsonObject(previousName).fieldNames(), fields);
+			case "$lookup":
+				final JsonObject lookup = previous.getJsonObject(previousName);
+				return lookup != null && lookup.getString("as") != null &&
+						!anyRelated(singleton(lookup.getString("as")), fields);
+			case "$unwind":
+				return !anyRelated(unwoundFields(previous.getValue(previousName)), fields);
+			case "$project":
+				return previous.getValue(previousName) instanceof JsonObject &&
+						keepsFields(previous.getJsonObject(previousName), fields);
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * @return false if the query uses an operator not bound to a field
+	 */
+	private static boolean collectFields(JsonObject query, Set<String> fields) {
+		for (Map.Entry<String, Object> entry : query) {
+			final String key = entry.getKey();
+			if ("$and".equals(key) || "$or".equals(key) || "$nor".equals(key)) {
+				if (!(entry.getValue() instanceof JsonArray)) {
+					return false;
+				}
+				for (Object clause : (JsonArray) entry.getValue()) {
+					if (!(clause instanceof JsonObject) || !collectFields((JsonObject) clause, fields)) {
+						return false;
+					}
+				}
+			} else if (key.startsWith("$")) {
+				return false;
+			} else {
+				fields.add(key);
+			}
+		}
+		return true;
+	}
+
+	private static Set<String> unwoundFields(Object unwind) {
+		final Set<String> unwound = new HashSet<>();
+		String path = null;
+		if (unwind instanceof String) {
+			path = (String) unwind;
+		} else if (unwind instanceof JsonObject) {
+			path = ((JsonObject) unwind).getString("path");
+			final String index = ((JsonObject) unwind).getString("includeArrayIndex");
+			if (index != null) {
+				unwound.add(index);
+			}
+		}
+		if (path == null || !path.startsWith("$")) {
+			// unknown form, related to every field
+			unwound.add("");
+		} else {
+			unwound.add(path.substring(1));
+		}
+		return unwound;
+	}
+
+	/**
+	 * @return true if the projection passes the fields through unchanged
+	 */
+	private static boolean keepsFields(JsonObject projection, Set<String> fields) {
+		boolean inclusion = false;
+		for (Map.Entry<String, Object> entry : projection) {
+			if (!"_id".equals(entry.getKey()) && !isExclusion(entry.getValue())) {
+				inclusion = true;
+			}
+		}
+		for (String field : fields) {
+			boolean included = false;
+			for (Map.Entry<String, Object> entry : projection) {
+				if (!related(entry.getKey(), field)) {
+					continue;
+				}
+				if (!isInclusion(entry.getValue()) || !entry.getKey().equals(field) && !isPrefix(entry.getKey(), field)) {
+					// excluded, computed, or only partly included
+					return false;
+				}
+				included = true;
+			}
+			if (inclusion && !included && !"_id".equals(field)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isInclusion(Object value) {
+		return Boolean.TRUE.equals(value) || (value instanceof Number && ((Number) value).intValue() != 0);
+	}
+
+	private static boolean isExclusion(Object value) {
+		return Boolean.FALSE.equals(value) || (value instanceof Number && ((Number) value).intValue() == 0);
+	}
+
+	private static boolean anyRelated(Set<String> changed, Set<String> fields) {
+		for (String c : changed) {
+			for (String field : fields) {
+				if (c.isEmpty() || related(c, field)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static boolean related(String a, String b) {
+		return a.equals(b) || isPrefix(a, b) || isPrefix(b, a);
+	}
+
+	private static boolean isPrefix(String prefix, String path) {
+		return path.startsWith(prefix + ".");
+	}
+
+	private static Set<String> singleton(String value) {
+		final Set<String> set = new HashSet<>();
+		set.add(value);
+		return set;
+	}
+
+}
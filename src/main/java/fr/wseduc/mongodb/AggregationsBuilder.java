@@ -1,5 +1,8 @@
 package fr.wseduc.mongodb;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 
 import io.vertx.core.json.JsonArray;
@@ -8,6 +11,7 @@ import org.bson.conversions.Bson;
 
 public class AggregationsBuilder {
 	private final JsonObject object = new JsonObject();
+	private final List<String> optimizations = new ArrayList<>();
 
 	private AggregationsBuilder(String collection) {
 		object.put("aggregate", collection);
@@ -151,6 +155,21 @@ public class AggregationsBuilder {
 		return this;
 	}
 
+	/**
+	 * Rewrites the pipeline into an equivalent one reading fewer documents, as by moving
+	 * $match stages earlier or merging adjacent $match, $skip and $limit stages.
+	 * The changes are listed by {@link #getOptimizations()}.
+	 */
+	public AggregationsBuilder optimize() {
+		this.object.put("pipeline", AggregationPipelineOptimizer.optimize(
+				this.object.getJsonArray("pipeline"), optimizations));
+		return this;
+	}
+
+	public List<String> getOptimizations() {
+		return Collections.unmodifiableList(optimizations);
+	}
+
 	public JsonObject getCommand() {
 		return object;
 	}
@@ -0,0 +1,118 @@
+package fr.wseduc.mongodb;
+
+import java.util.Base64;
+import java.util.Map;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.bson.BsonArray;
+import org.bson.BsonBinary;
+import org.bson.BsonDbPointer;
+import org.bson.BsonDocument;
+import org.bson.BsonJavaScriptWithScope;
+import org.bson.BsonRegularExpression;
+import org.bson.BsonTimestamp;
+import org.bson.BsonValue;
+
+/**
+ * Converts BSON values into JsonObject and JsonArray by walking the BSON tree, with the same
+ * result as writing them as strict extended JSON and parsing the JSON back, without the
+ * intermediate string.
+ */
+public final class BsonJsonConverter {
+
+	private BsonJsonConverter() {
+	}
+
+	public static JsonObject toJsonObject(BsonDocument document) {
+		final JsonObject json = new JsonObject();
+		for (Map.Entry<String, BsonValue> entry : document.entrySet()) {
+			json.put(entry.getKey(), toJson(entry.getValue()));
+		}
+		return json;
+	}
+
+	public static JsonArray toJsonArray(BsonArray array) {
+		final JsonArray json = new JsonArray();
+		for (BsonValue value : array) {
+			json.add(toJson(value));
+		}
+		return json;
+	}
+
+	/**
+	 * @return the JSON value of a BSON value : JsonObject, JsonArray, String, Integer, Long,
+	 * Double, Boolean or null. Numbers are narrowed as the JSON parser does.
+	 */
+	public static Object toJson(BsonValue value) {
+		switch (value.getBsonType()) {
+			case DOCUMENT:
+				return toJsonObject(value.asDocument());
+			case ARRAY:
+				return toJsonArray(value.asArray());
+			case STRING:
+				return value.asString().getValue();
+			case INT32:
+				return value.asInt32().getValue();
+			case INT64:
+				return new JsonObject().put("$numberLong", Long.toString(value.asInt64().getValue()));
+			case DOUBLE:
+				return value.asDouble().getValue();
+			case BOOLEAN:
+				return value.asBoolean().getValue();
+			case NULL:
+				return null;
+			case DATE_TIME:
+				return new JsonObject().put("$date", number(value.asDateTime().getValue()));
+			case OBJECT_ID:
+				return new JsonObject().put("$oid", value.asObjectId().getValue().toHexString());
+			case REGULAR_EXPRESSION:
+				final BsonRegularExpression regex = value.asRegularExpression();
+				return new JsonObject()
+						.put("$regex", regex.getPattern())
+						.put("$options", regex.getOptions());
+			case DECIMAL128:
+				return new JsonObject().put("$numberDecimal", value.asDecimal128().getValue().toString());
+			case BINARY:
+				final BsonBinary binary = value.asBinary();
+				return new JsonObject()
+						.put("$binary", Base64.getEncoder().encodeToString(binary.getData()))
+						.put("$type", String.format("%02X", binary.getType() & 0xFF));
+			case TIMESTAMP:
+				final BsonTimestamp timestamp = value.asTimestamp();
+				return new JsonObject().put("$timestamp", new JsonObject()
+						.put("t", number(Integer.toUnsignedLong(timestamp.getTime())))
+						.put("i", number(Integer.toUnsignedLong(timestamp.getInc()))));
+			case SYMBOL:
+				return new JsonObject().put("$symbol", value.asSymbol().getSymbol());
+			case JAVASCRIPT:
+				return new JsonObject().put("$code", value.asJavaScript().getCode());
+			case JAVASCRIPT_WITH_SCOPE:
+				final BsonJavaScriptWithScope code = value.asJavaScriptWithScope();
+				return new JsonObject()
+						.put("$code", code.getCode())
+						.put("$scope", toJsonObject(code.getScope()));
+			case DB_POINTER:
+				final BsonDbPointer pointer = value.asDBPointer();
+				return new JsonObject()
+						.put("$ref", pointer.getNamespace())
+						.put("$id", new JsonObject().put("$oid", pointer.getId().toHexString()));
+			case MIN_KEY:
+				return new JsonObject().put("$minKey", 1);
+			case MAX_KEY:
+				return new JsonObject().put("$maxKey", 1);
+			case UNDEFINED:
+				return new JsonObject().put("$undefined", true);
+			default:
+				throw new IllegalArgumentException("Unsupported BSON type : " + value.getBsonType());
+		}
+	}
+
+	private static Number number(long value) {
+		if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+			return (int) value;
+		}
+		return value;
+	}
+
+}
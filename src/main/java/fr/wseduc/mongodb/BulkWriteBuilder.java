@@ -0,0 +1,194 @@
+package fr.wseduc.mongodb;
+
+import java.util.ArrayDeque;
+
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Builds the commands of {@link MongoDb#bulk}, keeping count of the operations and of their
+ * estimated BSON size so that long write loops can be sent as bulks of a bounded size with
+ * {@link #flushIfFull(Handler)}.
+ * <p>
+ * Commands use the operations of the persistor bulk action, which reads the operation name,
+ * the criteria and the document of each command and skips unknown operations :
+ * <ul>
+ * <li>insert : inserts document</li>
+ * <li>update : applies the update document to every document matching criteria</li>
+ * <li>updateOne : applies it to the first document matching criteria</li>
+ * <li>upsert : applies it to the first document matching criteria, or inserts one</li>
+ * <li>replaceOne : replaces the first document matching criteria by document</li>
+ * <li>remove : removes every document matching criteria</li>
+ * <li>removeOne : removes the first document matching criteria</li>
+ * </ul>
+ * The number of documents written is only given by the operation name : commands hold no
+ * upsert nor multi flag.
+ */
+public class BulkWriteBuilder {
+
+	public static final int DEFAULT_MAX_OPERATIONS = 1000;
+	public static final int DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+	static final String INSERT = "insert";
+	static final String UPDATE = "update";
+	static final String UPDATE_ONE = "updateOne";
+	static final String UPSERT = "upsert";
+	static final String REPLACE_ONE = "replaceOne";
+	static final String REMOVE = "remove";
+	static final String REMOVE_ONE = "removeOne";
+
+	private static final String OPERATION = "operation";
+	private static final String DOCUMENT = "document";
+	private static final String CRITERIA = "criteria";
+	private static final int EMPTY_SIZE = 5;
+
+	private final int maxOperations;
+	private final int maxBytes;
+	private final ArrayDeque<JsonArray> full = new ArrayDeque<>();
+	private JsonArray commands = new JsonArray();
+	private int estimatedSize = EMPTY_SIZE;
+
+	public BulkWriteBuilder() {
+		this(DEFAULT_MAX_OPERATIONS, DEFAULT_MAX_BYTES);
+	}
+
+	public BulkWriteBuilder(int maxOperations, int maxBytes) {
+		this.maxOperations = Math.max(1, maxOperations);
+		this.maxBytes = Math.max(1, maxBytes);
+	}
+
+	public BulkWriteBuilder insert(final JsonObject document) {
+		return add(new JsonObject().put(OPERATION, INSERT).put(DOCUMENT, document));
+	}
+
+	public BulkWriteBuilder updateOne(final JsonObject criteria, final MongoUpdateBuilder update) {
+		return updateOne(criteria, update.build(), false);
+	}
+
+	/**
+	 * @param upsert if true, inserts a document when none matches criteria
+	 */
+	public BulkWriteBuilder updateOne(final JsonObject criteria, final JsonObject update, final boolean upsert) {
+		return write(upsert ? UPSERT : UPDATE_ONE, criteria, update);
+	}
+
+	public BulkWriteBuilder updateMany(final JsonObject criteria, final MongoUpdateBuilder update) {
+		return updateMany(criteria, update.build());
+	}
+
+	public BulkWriteBuilder updateMany(final JsonObject criteria, final JsonObject update) {
+		return write(UPDATE, criteria, update);
+	}
+
+	public BulkWriteBuilder replaceOne(final JsonObject criteria, final JsonObject document) {
+		return write(REPLACE_ONE, criteria, document);
+	}
+
+	public BulkWriteBuilder deleteOne(final JsonObject criteria) {
+		return add(new JsonObject().put(OPERATION, REMOVE_ONE).put(CRITERIA, criteria));
+	}
+
+	public BulkWriteBuilder deleteMany(final JsonObject criteria) {
+		return add(new JsonObject().put(OPERATION, REMOVE).put(CRITERIA, criteria));
+	}
+
+	/**
+	 * @return the number of commands not flushed yet
+	 */
+	public int size() {
+		int size = commands.size();
+		for (JsonArray bulk : full) {
+			size += bulk.size();
+		}
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * @return the estimated BSON size of the commands array being filled
+	 */
+	public int estimatedSize() {
+		return estimatedSize;
+	}
+
+	/**
+	 * @return true if a bulk reached the operation count or the estimated size limit
+	 */
+	public boolean isFull() {
+		return !full.isEmpty() || commands.size() >= maxOperations || estimatedSize >= maxBytes;
+	}
+
+	/**
+	 * @return every command not flushed yet, regardless of the limits
+	 */
+	public JsonArray build() {
+		if (full.isEmpty()) {
+			return commands;
+		}
+		final JsonArray all = new JsonArray();
+		for (JsonArray bulk : full) {
+			all.addAll(bulk);
+		}
+		return all.addAll(commands);
+	}
+
+	/**
+	 * @return the oldest bulk that reached a limit, or else the commands being filled, which
+	 * are replaced by a new empty list
+	 */
+	public JsonArray flush() {
+		if (!full.isEmpty()) {
+			return full.poll();
+		}
+		final JsonArray flushed = commands;
+		commands = new JsonArray();
+		estimatedSize = EMPTY_SIZE;
+		return flushed;
+	}
+
+	/**
+	 * Hands to handler every bulk that reached the operation count or the estimated size
+	 * limit, the commands being filled included.
+	 * @return true if commands were flushed
+	 */
+	public boolean flushIfFull(Handler<JsonArray> handler) {
+		if (!isFull()) {
+			return false;
+		}
+		while (isFull()) {
+			handler.handle(flush());
+		}
+		return true;
+	}
+
+	private BulkWriteBuilder write(String operation, JsonObject criteria, JsonObject document) {
+		return add(new JsonObject().put(OPERATION, operation).put(CRITERIA, criteria).put(DOCUMENT, document));
+	}
+
+	private BulkWriteBuilder add(JsonObject command) {
+		final int size = JsonSizeEstimator.estimate(command);
+		if (!commands.isEmpty() && (commands.size() >= maxOperations ||
+				estimatedSize + entrySize(commands.size(), size) > maxBytes)) {
+			// checked before adding, so that a bulk never goes over the size limit
+			full.add(commands);
+			commands = new JsonArray();
+			estimatedSize = EMPTY_SIZE;
+		}
+		estimatedSize += entrySize(commands.size(), size);
+		commands.add(command);
+		return this;
+	}
+
+	/**
+	 * @return the size of a command in the commands array : element type, index key and its
+	 * terminator, and the command document
+	 */
+	private static int entrySize(int index, int commandSize) {
+		return 2 + Integer.toString(index).length() + commandSize;
+	}
+
+}
@@ -0,0 +1,155 @@
+package fr.wseduc.mongodb;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Default {@link MongoDbMetrics} keeping counters and fixed bucket latency histograms per
+ * action and per collection in memory. {@link #snapshot()} exports them for a metrics endpoint.
+ */
+public class InMemoryMongoDbMetrics implements MongoDbMetrics {
+
+	/** upper bounds of the latency buckets, in milliseconds */
+	private static final long[] BUCKETS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000};
+	private static final String NO_COLLECTION = "";
+
+	private final Map<String, Map<String, Stats>> stats = new ConcurrentHashMap<>();
+	private final AtomicLong inFlight = new AtomicLong();
+	private final boolean measureSizes;
+
+	public InMemoryMongoDbMetrics() {
+		this(true);
+	}
+
+	public InMemoryMongoDbMetrics(boolean measureSizes) {
+		this.measureSizes = measureSizes;
+	}
+
+	@Override
+	public boolean measureSizes() {
+		return measureSizes;
+	}
+
+	@Override
+	public void requestSent(String action, String collection, int requestBytes) {
+		inFlight.incrementAndGet();
+		final Stats s = stats(action, collection);
+		s.inFlight.incrementAndGet();
+		s.requests.increment();
+		if (requestBytes > 0) {
+			s.requestBytes.add(requestBytes);
+		}
+	}
+
+	@Override
+	public void requestCompleted(String action, String collection, long latencyNanos, int replyBytes,
+			Outcome outcome) {
+		inFlight.decrementAndGet();
+		final Stats s = stats(action, collection);
+		s.inFlight.decrementAndGet();
+		s.outcomes[outcome.ordinal()].increment();
+		s.totalNanos.add(latencyNanos);
+		s.maxNanos.accumulate(latencyNanos);
+		s.buckets.incrementAndGet(bucket(latencyNanos / 1_000_000L));
+		if (replyBytes > 0) {
+			s.replyBytes.add(replyBytes);
+		}
+	}
+
+	public long inFlight() {
+		return inFlight.get();
+	}
+
+	public void reset() {
+		stats.clear();
+	}
+
+	/**
+	 * @return {"inFlight": n, "actions": {action: {collection: {...}}}}, histogram counts
+	 * are not cumulative, the "le" array gives the bucket upper bounds in milliseconds
+	 */
+	public JsonObject snapshot() {
+		final JsonArray bounds = new JsonArray();
+		for (long bound : BUCKETS) {
+			bounds.add(bound);
+		}
+		final JsonObject actions = new JsonObject();
+		stats.forEach((action, collections) -> {
+			final JsonObject byCollection = new JsonObject();
+			collections.forEach((collection, s) -> byCollection.put(collection, s.toJson()));
+			actions.put(action, byCollection);
+		});
+		return new JsonObject()
+				.put("inFlight", inFlight.get())
+				.put("le", bounds)
+				.put("actions", actions);
+	}
+
+	private Stats stats(String action, String collection) {
+		final Map<String, Stats> collections = stats.computeIfAbsent(action == null ? NO_COLLECTION : action,
+				k -> new ConcurrentHashMap<>());
+		return collections.computeIfAbsent(collection == null ? NO_COLLECTION : collection, k -> new Stats());
+	}
+
+	private static int bucket(long millis) {
+		for (int i = 0; i < BUCKETS.length; i++) {
+			if (millis <= BUCKETS[i]) {
+				return i;
+			}
+		}
+		return BUCKETS.length;
+	}
+
+	private static class Stats {
+		private final AtomicLong inFlight = new AtomicLong();
+		private final LongAdder requests = new LongAdder();
+		private final LongAdder[] outcomes = new LongAdder[Outcome.values().length];
+		private final LongAdder totalNanos = new LongAdder();
+		private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0L);
+		private final LongAdder requestBytes = new LongAdder();
+		private final LongAdder replyBytes = new LongAdder();
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS.length + 1);
+
+		private Stats() {
+			for (int i = 0; i < outcomes.length; i++) {
+				outcomes[i] = new LongAdder();
+			}
+		}
+
+		private JsonObject toJson() {
+			final JsonArray histogram = new JsonArray();
+			for (int i = 0; i < buckets.length(); i++) {
+				histogram.add(buckets.get(i));
+			}
+			final long completed = completed();
+			return new JsonObject()
+					.put("inFlight", inFlight.get())
+					.put("requests", requests.sum())
+					.put("ok", outcomes[Outcome.OK.ordinal()].sum())
+					.put("errors", outcomes[Outcome.ERROR.ordinal()].sum())
+					.put("timeouts", outcomes[Outcome.TIMEOUT.ordinal()].sum())
+					.put("failures", outcomes[Outcome.FAILURE.ordinal()].sum())
+					.put("meanMillis", completed == 0L ? 0.0 : totalNanos.sum() / 1_000_000.0 / completed)
+					.put("maxMillis", maxNanos.get() / 1_000_000.0)
+					.put("requestBytes", requestBytes.sum())
+					.put("replyBytes", replyBytes.sum())
+					.put("histogram", histogram);
+		}
+
+		private long completed() {
+			long completed = 0L;
+			for (LongAdder outcome : outcomes) {
+				completed += outcome.sum();
+			}
+			return completed;
+		}
+	}
+
+}
@@ -0,0 +1,45 @@
+package fr.wseduc.mongodb;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.MessageCodec;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Event bus codec passing JsonObject messages by reference for local delivery, instead of
+ * the deep copy made by the default JsonObject codec. The sender must not modify a message
+ * after sending it, and the receiver gets the same instance as the sender.
+ */
+public class JsonObjectLocalCodec implements MessageCodec<JsonObject, JsonObject> {
+
+	public static final String NAME = "mongodb-helper.jsonobject.local";
+
+	@Override
+	public void encodeToWire(Buffer buffer, JsonObject jsonObject) {
+		final Buffer encoded = jsonObject.toBuffer();
+		buffer.appendInt(encoded.length());
+		buffer.appendBuffer(encoded);
+	}
+
+	@Override
+	public JsonObject decodeFromWire(int pos, Buffer buffer) {
+		final int length = buffer.getInt(pos);
+		pos += 4;
+		return new JsonObject(buffer.getBuffer(pos, pos + length));
+	}
+
+	@Override
+	public JsonObject transform(JsonObject jsonObject) {
+		return jsonObject;
+	}
+
+	@Override
+	public String name() {
+		return NAME;
+	}
+
+	@Override
+	public byte systemCodecID() {
+		return -1;
+	}
+
+}
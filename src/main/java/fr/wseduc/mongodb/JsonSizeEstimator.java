@@ -0,0 +1,89 @@
+package fr.wseduc.mongodb;
+
+import java.util.List;
+import java.util.Map;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Estimates the BSON encoded size of JSON documents by walking their content, without
+ * encoding them.
+ */
+final class JsonSizeEstimator {
+
+	private JsonSizeEstimator() {
+	}
+
+	static int estimate(JsonObject document) {
+		return document == null ? 0 : estimateMap(document.getMap());
+	}
+
+	static int estimate(JsonArray array) {
+		return array == null ? 0 : estimateList(array.getList());
+	}
+
+	private static int estimateMap(Map<String, Object> map) {
+		int size = 5; // length and terminator
+		for (Map.Entry<String, Object> entry : map.entrySet()) {
+			size += 2 + entry.getKey().length() + estimateValue(entry.getValue());
+		}
+		return size;
+	}
+
+	private static int estimateList(List<?> list) {
+		int size = 5;
+		final int length = list.size();
+		for (int i = 0; i < length; i++) {
+			size += 2 + indexLength(i) + estimateValue(list.get(i));
+		}
+		return size;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static int estimateValue(Object value) {
+		if (value == null) {
+			return 0;
+		} else if (value instanceof String) {
+			return 5 + utf8Length((String) value);
+		} else if (value instanceof JsonObject) {
+			return estimateMap(((JsonObject) value).getMap());
+		} else if (value instanceof JsonArray) {
+			return estimateList(((JsonArray) value).getList());
+		} else if (value instanceof Map) {
+			return estimateMap((Map<String, Object>) value);
+		} else if (value instanceof List) {
+			return estimateList((List<?>) value);
+		} else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			return 4;
+		} else if (value instanceof Boolean) {
+			return 1;
+		} else if (value instanceof Number) {
+			return 8;
+		} else if (value instanceof byte[]) {
+			return 5 + ((byte[]) value).length;
+		} else if (value instanceof Buffer) {
+			return 5 + ((Buffer) value).length();
+		} else {
+			return 5 + utf8Length(value.toString());
+		}
+	}
+
+	private static int utf8Length(String s) {
+		final int length = s.length();
+		int size = length;
+		for (int i = 0; i < length; i++) {
+			final char c = s.charAt(i);
+			if (c >= 0x80) {
+				size += c >= 0x800 && !Character.isSurrogate(c) ? 2 : 1;
+			}
+		}
+		return size;
+	}
+
+	private static int indexLength(int i) {
+		return i < 10 ? 1 : i < 100 ? 2 : i < 1000 ? 3 : i < 10000 ? 4 : String.valueOf(i).length();
+	}
+
+}
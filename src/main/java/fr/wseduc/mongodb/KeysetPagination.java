@@ -0,0 +1,234 @@
+package fr.wseduc.mongodb;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Range based pagination : instead of skipping the previous pages, each page is selected with
+ * a range predicate on the sort keys, starting after the last document of the previous page.
+ * The sort always ends with _id so that the order is total. The position is carried by an
+ * opaque continuation token holding the sort key values of that last document.
+ * Sort keys must not be missing or null in the paginated documents. They are always projected,
+ * and removed from the page documents when the projection did not ask for them.
+ */
+public final class KeysetPagination {
+
+	private static final String ID = "_id";
+
+	private KeysetPagination() {
+	}
+
+	/**
+	 * @return the sort, followed by _id ascending if it does not contain _id
+	 */
+	public static JsonObject sortWithTieBreaker(JsonObject sort) {
+		final JsonObject total = sort == null ? new JsonObject() : sort.copy();
+		if (!total.containsKey(ID)) {
+			total.put(ID, 1);
+		}
+		return total;
+	}
+
+	/**
+	 * @return the projection including the sort keys, or null if keys is null
+	 */
+	public static JsonObject keysWithSortFields(JsonObject keys, JsonObject sort) {
+		if (keys == null || keys.isEmpty()) {
+			return keys;
+		}
+		final JsonObject withSort = keys.copy();
+		if (isInclusion(keys)) {
+			for (String field : sort.fieldNames()) {
+				if (ID.equals(field) || !isIncluded(keys, field)) {
+					withSort.put(field, 1);
+				}
+			}
+		} else {
+			for (String field : sort.fieldNames()) {
+				final String excluding = excludingKey(keys, field);
+				if (excluding != null) {
+					withSort.remove(excluding);
+				}
+			}
+		}
+		return withSort;
+	}
+
+	/**
+	 * @return the fields added to keys by {@link #keysWithSortFields(JsonObject, JsonObject)},
+	 * to remove from the page documents with {@link #removeFields(JsonArray, List)}
+	 */
+	public static List<String> hiddenSortFields(JsonObject keys, JsonObject sort) {
+		final List<String> hidden = new ArrayList<>();
+		if (keys == null || keys.isEmpty()) {
+			return hidden;
+		}
+		final boolean inclusion = isInclusion(keys);
+		for (String field : sort.fieldNames()) {
+			if (inclusion) {
+				if (ID.equals(field) ? isExclusion(keys.getValue(ID)) : !isIncluded(keys, field)) {
+					hidden.add(field);
+				}
+			} else {
+				final String excluding = excludingKey(keys, field);
+				if (excluding != null && !hidden.contains(excluding)) {
+					hidden.add(excluding);
+				}
+			}
+		}
+		return hidden;
+	}
+
+	/**
+	 * Removes the fields at paths from documents, and the embedded documents left empty.
+	 */
+	public static void removeFields(JsonArray documents, List<String> paths) {
+		if (paths.isEmpty()) {
+			return;
+		}
+		for (Object document : documents) {
+			if (document instanceof JsonObject) {
+				for (String path : paths) {
+					removeField((JsonObject) document, path.split("\\."), 0);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the continuation token positioned after document
+	 */
+	public static String token(JsonObject document, JsonObject sort) {
+		final JsonArray values = new JsonArray();
+		for (String field : sort.fieldNames()) {
+			values.add(valueAt(document, field));
+		}
+		return Base64.getUrlEncoder().withoutPadding()
+				.encodeToString(values.encode().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @return the matcher restricted to the documents following the token, or the matcher
+	 * itself if token is null
+	 * @throws IllegalArgumentException if the token does not match the sort
+	 */
+	public static JsonObject pageMatcher(JsonObject matcher, JsonObject sort, String token) {
+		if (token == null) {
+			return matcher;
+		}
+		final JsonObject range = rangeMatcher(sort, decode(token));
+		if (matcher == null || matcher.isEmpty()) {
+			return range;
+		}
+		return new JsonObject().put("$and", new JsonArray().add(matcher).add(range));
+	}
+
+	static JsonObject rangeMatcher(JsonObject sort, JsonArray values) {
+		if (values.size() != sort.size()) {
+			throw new IllegalArgumentException("Continuation token does not match the sort");
+		}
+		final JsonArray or = new JsonArray();
+		int i = 0;
+		for (Map.Entry<String, Object> key : sort) {
+			final JsonObject clause = new JsonObject();
+			int j = 0;
+			for (String previous : sort.fieldNames()) {
+				if (j == i) {
+					break;
+				}
+				clause.put(previous, values.getValue(j++));
+			}
+			final String operator = isDescending(key.getValue()) ? "$lt" : "$gt";
+			clause.put(key.getKey(), new JsonObject().put(operator, values.getValue(i)));
+			or.add(clause);
+			i++;
+		}
+		return or.size() == 1 ? or.getJsonObject(0) : new JsonObject().put("$or", or);
+	}
+
+	private static JsonArray decode(String token) {
+		try {
+			return new JsonArray(new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8));
+		} catch (RuntimeException e) {
+			throw new IllegalArgumentException("Invalid continuation token", e);
+		}
+	}
+
+	private static Object valueAt(JsonObject document, String path) {
+		Object value = document;
+		for (String field : path.split("\\.")) {
+			if (!(value instanceof JsonObject)) {
+				return null;
+			}
+			value = ((JsonObject) value).getValue(field);
+		}
+		return value;
+	}
+
+	private static void removeField(JsonObject document, String[] path, int depth) {
+		if (depth == path.length - 1) {
+			document.remove(path[depth]);
+			return;
+		}
+		final Object embedded = document.getValue(path[depth]);
+		if (embedded instanceof JsonObject) {
+			removeField((JsonObject) embedded, path, depth + 1);
+			if (((JsonObject) embedded).isEmpty()) {
+				document.remove(path[depth]);
+			}
+		}
+	}
+
+	/**
+	 * @return true if the inclusion projection keys includes field or an enclosing field
+	 */
+	private static boolean isIncluded(JsonObject keys, String field) {
+		for (String path = field; path != null; path = parent(path)) {
+			if (keys.containsKey(path) && !isExclusion(keys.getValue(path))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the key of the exclusion projection keys excluding field, or null
+	 */
+	private static String excludingKey(JsonObject keys, String field) {
+		for (String path = field; path != null; path = parent(path)) {
+			if (keys.containsKey(path) && isExclusion(keys.getValue(path))) {
+				return path;
+			}
+		}
+		return null;
+	}
+
+	private static String parent(String path) {
+		final int dot = path.lastIndexOf('.');
+		return dot > 0 ? path.substring(0, dot) : null;
+	}
+
+	private static boolean isDescending(Object direction) {
+		return direction instanceof Number && ((Number) direction).intValue() < 0;
+	}
+
+	private static boolean isInclusion(JsonObject keys) {
+		for (Map.Entry<String, Object> key : keys) {
+			if (!ID.equals(key.getKey())) {
+				return !isExclusion(key.getValue());
+			}
+		}
+		return !isExclusion(keys.getValue(ID));
+	}
+
+	private static boolean isExclusion(Object value) {
+		return Boolean.FALSE.equals(value) || (value instanceof Number && ((Number) value).intValue() == 0);
+	}
+
+}
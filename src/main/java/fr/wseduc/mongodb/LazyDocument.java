@@ -0,0 +1,131 @@
+package fr.wseduc.mongodb;
+
+import java.util.Set;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+
+/**
+ * Document of a {@link LazyResults}, kept as its BSON bytes : a field is only decoded when
+ * it is read, and the values are not cached. When the persistor replied with JSON documents,
+ * the document is backed by the decoded JsonObject instead.
+ */
+public final class LazyDocument {
+
+	private final RawBsonDocument raw;
+	private final JsonObject json;
+
+	private LazyDocument(RawBsonDocument raw, JsonObject json) {
+		this.raw = raw;
+		this.json = json;
+	}
+
+	static LazyDocument of(RawBsonDocument raw) {
+		return new LazyDocument(raw, null);
+	}
+
+	static LazyDocument of(JsonObject json) {
+		return new LazyDocument(null, json);
+	}
+
+	/**
+	 * @return true if the document is backed by BSON bytes
+	 */
+	public boolean isRaw() {
+		return raw != null;
+	}
+
+	public boolean containsKey(String field) {
+		return raw != null ? raw.containsKey(field) : json.containsKey(field);
+	}
+
+	public Set<String> fieldNames() {
+		return raw != null ? raw.keySet() : json.fieldNames();
+	}
+
+	/**
+	 * @return the value of field, as in the JsonObject of the document
+	 */
+	public Object getValue(String field) {
+		if (raw == null) {
+			return json.getValue(field);
+		}
+		final BsonValue value = raw.get(field);
+		return value != null ? BsonJsonConverter.toJson(value) : null;
+	}
+
+	/**
+	 * @return the value of field, or null if it is missing or is not a string
+	 */
+	public String getString(String field) {
+		if (raw == null) {
+			final Object value = json.getValue(field);
+			return value instanceof String ? (String) value : null;
+		}
+		final BsonValue value = raw.get(field);
+		return value != null && value.isString() ? value.asString().getValue() : null;
+	}
+
+	public Integer getInteger(String field) {
+		final Number number = getNumber(field);
+		return number != null ? number.intValue() : null;
+	}
+
+	public Long getLong(String field) {
+		final Number number = getNumber(field);
+		return number != null ? number.longValue() : null;
+	}
+
+	public Double getDouble(String field) {
+		final Number number = getNumber(field);
+		return number != null ? number.doubleValue() : null;
+	}
+
+	/**
+	 * @return the value of field, or null if it is missing or is not a boolean
+	 */
+	public Boolean getBoolean(String field) {
+		if (raw == null) {
+			final Object value = json.getValue(field);
+			return value instanceof Boolean ? (Boolean) value : null;
+		}
+		final BsonValue value = raw.get(field);
+		return value != null && value.isBoolean() ? value.asBoolean().getValue() : null;
+	}
+
+	public JsonObject getJsonObject(String field) {
+		final Object value = getValue(field);
+		return value instanceof JsonObject ? (JsonObject) value : null;
+	}
+
+	public JsonArray getJsonArray(String field) {
+		final Object value = getValue(field);
+		return value instanceof JsonArray ? (JsonArray) value : null;
+	}
+
+	/**
+	 * @return the whole document decoded
+	 */
+	public JsonObject toJsonObject() {
+		return raw != null ? BsonJsonConverter.toJsonObject(raw) : json;
+	}
+
+	private Number getNumber(String field) {
+		if (raw == null) {
+			final Object value = json.getValue(field);
+			if (value instanceof JsonObject && ((JsonObject) value).getValue("$numberLong") instanceof String) {
+				return Long.valueOf(((JsonObject) value).getString("$numberLong"));
+			}
+			return value instanceof Number ? (Number) value : null;
+		}
+		final BsonValue value = raw.get(field);
+		if (value == null || !value.isNumber()) {
+			return null;
+		}
+		return value.isInt32() ? (Number) value.asInt32().getValue() :
+				value.isInt64() ? (Number) value.asInt64().getValue() : (Number) value.asDouble().getValue();
+	}
+
+}
@@ -0,0 +1,163 @@
+package fr.wseduc.mongodb;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.bson.RawBsonDocument;
+
+/**
+ * Results of a request sent with "raw_results", kept as the concatenated BSON documents of
+ * the reply. Only the document boundaries are read when the results are created, documents
+ * are decoded field by field when they are read.
+ * <p>
+ * <b>Experimental</b> : raw results need a persistor replying to "raw_results" with the BSON
+ * bytes, which the mongo persistor does not do yet. Until then, the reply holds the usual JSON
+ * "results", already fully decoded, and they are only wrapped : no allocation is saved, each
+ * document costs one more wrapper.
+ */
+public final class LazyResults implements Iterable<LazyDocument> {
+
+	static final String RAW_RESULTS = "raw_results";
+
+	private final byte[] bytes;
+	private final int[] offsets;
+	private final JsonArray results;
+
+	private LazyResults(byte[] bytes, int[] offsets, JsonArray results) {
+		this.bytes = bytes;
+		this.offsets = offsets;
+		this.results = results;
+	}
+
+	/**
+	 * @param body a reply with "raw_results" BSON bytes, or with "results"
+	 * @throws IllegalArgumentException if the BSON bytes are truncated or invalid
+	 */
+	public static LazyResults of(JsonObject body) {
+		final Object raw = body.getValue(RAW_RESULTS);
+		if (raw == null) {
+			final JsonArray results = body.getJsonArray("results");
+			return new LazyResults(null, null, results != null ? results : new JsonArray());
+		}
+		final byte[] bytes = body.getBinary(RAW_RESULTS);
+		return new LazyResults(bytes, boundaries(bytes), null);
+	}
+
+	/**
+	 * @param replies the replies of the successive batches of a request
+	 * @throws IllegalArgumentException if the BSON bytes are truncated or invalid
+	 */
+	static LazyResults of(List<JsonObject> replies) {
+		if (replies.size() == 1) {
+			return of(replies.get(0));
+		}
+		final ByteArrayOutputStream raw = new ByteArrayOutputStream();
+		final JsonArray results = new JsonArray();
+		for (JsonObject reply : replies) {
+			if (reply.getValue(RAW_RESULTS) != null) {
+				final byte[] bytes = reply.getBinary(RAW_RESULTS);
+				raw.write(bytes, 0, bytes.length);
+			} else {
+				results.addAll(reply.getJsonArray("results", new JsonArray()));
+			}
+		}
+		if (raw.size() > 0 && !results.isEmpty()) {
+			throw new IllegalArgumentException("Batches mix raw and JSON results");
+		}
+		return raw.size() > 0 ? of(new JsonObject().put(RAW_RESULTS, raw.toByteArray())) :
+				new LazyResults(null, null, results);
+	}
+
+	public int size() {
+		return results != null ? results.size() : offsets.length - 1;
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * @return true if the documents are backed by BSON bytes
+	 */
+	public boolean isRaw() {
+		return bytes != null;
+	}
+
+	public LazyDocument get(int index) {
+		if (results != null) {
+			return LazyDocument.of(results.getJsonObject(index));
+		}
+		if (index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("Index " + index + ", size " + size());
+		}
+		return LazyDocument.of(new RawBsonDocument(bytes, offsets[index], offsets[index + 1] - offsets[index]));
+	}
+
+	@Override
+	public Iterator<LazyDocument> iterator() {
+		return new Iterator<LazyDocument>() {
+			private int next;
+
+			@Override
+			public boolean hasNext() {
+				return next < size();
+			}
+
+			@Override
+			public LazyDocument next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return get(next++);
+			}
+		};
+	}
+
+	/**
+	 * @return every document decoded
+	 */
+	public JsonArray toJsonArray() {
+		if (results != null) {
+			return results;
+		}
+		final JsonArray array = new JsonArray();
+		for (LazyDocument document : this) {
+			array.add(document.toJsonObject());
+		}
+		return array;
+	}
+
+	private static int[] boundaries(byte[] bytes) {
+		int count = 0;
+		int offset = 0;
+		while (offset < bytes.length) {
+			offset += length(bytes, offset);
+			count++;
+		}
+		final int[] offsets = new int[count + 1];
+		offset = 0;
+		for (int i = 0; i < count; i++) {
+			offsets[i] = offset;
+			offset += length(bytes, offset);
+		}
+		offsets[count] = offset;
+		return offsets;
+	}
+
+	private static int length(byte[] bytes, int offset) {
+		if (offset + 4 > bytes.length) {
+			throw new IllegalArgumentException("Truncated BSON document at " + offset);
+		}
+		final int length = (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8 |
+				(bytes[offset + 2] & 0xFF) << 16 | (bytes[offset + 3] & 0xFF) << 24;
+		if (length < 5 || offset + length > bytes.length) {
+			throw new IllegalArgumentException("Invalid BSON document length " + length + " at " + offset);
+		}
+		return length;
+	}
+
+}
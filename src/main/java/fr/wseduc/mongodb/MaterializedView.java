@@ -0,0 +1,362 @@
+package fr.wseduc.mongodb;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Results of an aggregation pipeline stored in a target collection with $merge, so that
+ * readers query the small target collection instead of running the pipeline.
+ * <p>
+ * A full refresh runs the whole pipeline. An incremental refresh, enabled with
+ * {@link #incremental(String)}, only runs it on the source documents whose high water mark
+ * field, as a modification date, is greater than at the previous refresh. A changed document
+ * is merged again, so incremental refreshes are only allowed for pipelines computing each
+ * target document from a single source document, and with a whenMatched option that does not
+ * combine the stored document with the new one : grouping stages and update pipelines fail
+ * with "mongodb.view.incremental.unsupported", use full refreshes for them.
+ * <p>
+ * Documents of the target collection no longer produced by the pipeline are not removed.
+ * The high water mark and the outcome of the last refresh may be kept in a state collection
+ * to survive restarts. The high water mark only moves when a refresh succeeds : a refresh
+ * timing out may still be merging on the server, and its range is merged again by the next one.
+ */
+public class MaterializedView {
+
+	public static final String REFRESH_RUNNING = "mongodb.view.refresh.running";
+	public static final String INCREMENTAL_UNSUPPORTED = "mongodb.view.incremental.unsupported";
+	private static final Set<String> GROUPING_STAGES = new HashSet<>(Arrays.asList(
+			"$group", "$bucket", "$bucketAuto", "$sortByCount", "$count", "$facet", "$setWindowFields",
+			"$densify", "$fill", "$limit", "$skip", "$sample", "$unionWith"));
+
+	private final MongoDb mongo;
+	private final AggregationsBuilder source;
+	private final String target;
+	private Object on = "_id";
+	private Object whenMatched = "replace";
+	private String highWaterMarkField;
+	private String stateCollection;
+	private long timeoutMillis;
+	private Object highWaterMark;
+	private boolean stateLoaded;
+	private final AtomicBoolean running = new AtomicBoolean();
+	private Vertx vertx;
+	private long timerId = -1L;
+	private long refreshes;
+	private long failures;
+	private long unchanged;
+	private long overlaps;
+	private long lastRefresh;
+	private long lastDurationMillis;
+	private String lastError;
+	private String lastOutcome;
+
+	public MaterializedView(AggregationsBuilder source, String target) {
+		this.mongo = MongoDb.getInstance();
+		this.source = source;
+		this.target = target;
+	}
+
+	/**
+	 * @param fields the fields identifying a document of the target collection, _id by default.
+	 * A unique index must exist on them in the target collection.
+	 */
+	public MaterializedView withMergeOn(String... fields) {
+		this.on = fields.length == 1 ? fields[0] : new JsonArray(Arrays.asList((Object[]) fields));
+		return this;
+	}
+
+	/**
+	 * @param whenMatched "replace" (default), "keepExisting", "merge", "fail", or an update
+	 * pipeline combining the stored document with the new one, available as $$new
+	 */
+	public MaterializedView withWhenMatched(Object whenMatched) {
+		this.whenMatched = whenMatched;
+		return this;
+	}
+
+	/**
+	 * @param field the source field growing on each change of a document
+	 */
+	public MaterializedView incremental(String field) {
+		this.highWaterMarkField = field;
+		return this;
+	}
+
+	/**
+	 * @param timeoutMillis the maximum time waited for the merge of a refresh, the event bus
+	 * default if 0
+	 */
+	public MaterializedView withTimeout(long timeoutMillis) {
+		this.timeoutMillis = timeoutMillis;
+		return this;
+	}
+
+	/**
+	 * @param collection collection keeping the high water mark and the last refresh date,
+	 * in a document identified by the target collection name
+	 */
+	public MaterializedView withStateCollection(String collection) {
+		this.stateCollection = collection;
+		return this;
+	}
+
+	/**
+	 * Refreshes the view, incrementally if enabled and a previous refresh is known.
+	 * @return the refresh statistics, or a failure with "mongodb.view.refresh.running" if
+	 * a refresh is already running, or with "mongodb.view.incremental.unsupported" if the
+	 * pipeline can not be refreshed incrementally
+	 */
+	public Future<JsonObject> refresh() {
+		return run(false);
+	}
+
+	/**
+	 * Refreshes the view with every source document, even if incremental.
+	 */
+	public Future<JsonObject> refreshFull() {
+		return run(true);
+	}
+
+	/**
+	 * Refreshes the view every periodMillis. A period is skipped while the previous refresh
+	 * is still running.
+	 */
+	public synchronized MaterializedView schedule(Vertx vertx, long periodMillis) {
+		cancel();
+		this.vertx = vertx;
+		this.timerId = vertx.setPeriodic(periodMillis, id -> {
+			if (running.get()) {
+				synchronized (this) {
+					overlaps++;
+				}
+				return;
+			}
+			refresh();
+		});
+		return this;
+	}
+
+	public synchronized void cancel() {
+		if (vertx != null && timerId >= 0L) {
+			vertx.cancelTimer(timerId);
+		}
+		timerId = -1L;
+	}
+
+	public synchronized JsonObject getStats() {
+		return new JsonObject()
+				.put("target", target)
+				.put("running", running.get())
+				.put("refreshes", refreshes)
+				.put("failures", failures)
+				.put("unchanged", unchanged)
+				.put("overlaps", overlaps)
+				.put("lastRefresh", lastRefresh)
+				.put("lastDurationMillis", lastDurationMillis)
+				.put("lastError", lastError)
+				.put("lastOutcome", lastOutcome)
+				.put("highWaterMark", highWaterMark);
+	}
+
+	private Future<JsonObject> run(boolean full) {
+		if (!running.compareAndSet(false, true)) {
+			return Future.failedFuture(REFRESH_RUNNING);
+		}
+		final long start = System.currentTimeMillis();
+		final Future<JsonObject> refreshed;
+		if (highWaterMarkField != null && !full && !isIncrementable()) {
+			refreshed = Future.failedFuture(INCREMENTAL_UNSUPPORTED);
+		} else if (highWaterMarkField == null) {
+			refreshed = merge(null, null);
+		} else {
+			refreshed = loadState().compose(v -> {
+				final Object from = full ? null : highWaterMark;
+				return maxHighWaterMark(from).compose(to -> {
+					if (to == null) {
+						synchronized (this) {
+							unchanged++;
+						}
+						return Future.succeededFuture(new JsonObject().put("unchanged", true));
+					}
+					return merge(from, to).compose(result -> saveState(to).map(result));
+				});
+			});
+		}
+		final Promise<JsonObject> promise = Promise.promise();
+		refreshed.onComplete(ar -> {
+			final long duration = System.currentTimeMillis() - start;
+			synchronized (this) {
+				lastDurationMillis = duration;
+				if (ar.succeeded()) {
+					refreshes++;
+					lastRefresh = start;
+					lastError = null;
+					lastOutcome = "ok";
+				} else {
+					failures++;
+					lastError = ar.cause().getMessage();
+					lastOutcome = "failed";
+				}
+			}
+			final Future<Void> saved = ar.succeeded() ? Future.succeededFuture() : saveFailure(ar.cause().getMessage());
+			saved.onComplete(v -> {
+				running.set(false);
+				if (ar.succeeded()) {
+					promise.complete(ar.result().put("durationMillis", duration));
+				} else {
+					promise.fail(ar.cause());
+				}
+			});
+		});
+		return promise.future();
+	}
+
+	/**
+	 * @return true if each target document is computed from a single source document and
+	 * merging it again does not combine it with the stored one
+	 */
+	private boolean isIncrementable() {
+		if (whenMatched instanceof JsonArray) {
+			return false;
+		}
+		for (Object stage : source.getCommand().getJsonArray("pipeline", new JsonArray())) {
+			if (stage instanceof JsonObject) {
+				for (String name : ((JsonObject) stage).fieldNames()) {
+					if (GROUPING_STAGES.contains(name)) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	private Future<Void> loadState() {
+		if (stateCollection == null || stateLoaded) {
+			return Future.succeededFuture();
+		}
+		final Promise<Void> promise = Promise.promise();
+		mongo.findOne(stateCollection, new JsonObject().put("_id", target), message -> {
+			final JsonObject body = message.body();
+			if (!MongoDb.isOk(body)) {
+				promise.fail(MongoDb.toErrorStr(body));
+				return;
+			}
+			final JsonObject state = body.getJsonObject("result");
+			synchronized (this) {
+				if (state != null && highWaterMark == null) {
+					highWaterMark = state.getValue("highWaterMark");
+				}
+				stateLoaded = true;
+			}
+			promise.complete();
+		});
+		return promise.future();
+	}
+
+	private Future<Void> saveState(Object to) {
+		synchronized (this) {
+			highWaterMark = to;
+		}
+		if (stateCollection == null) {
+			return Future.succeededFuture();
+		}
+		final Promise<Void> promise = Promise.promise();
+		final JsonObject state = new JsonObject()
+				.put("highWaterMark", to)
+				.put("lastRefresh", MongoDb.now())
+				.put("lastOutcome", "ok")
+				.putNull("lastError");
+		mongo.update(stateCollection, new JsonObject().put("_id", target), new JsonObject().put("$set", state),
+				true, false, message -> {
+					if (MongoDb.isOk(message.body())) {
+						promise.complete();
+					} else {
+						promise.fail(MongoDb.toErrorStr(message.body()));
+					}
+				});
+		return promise.future();
+	}
+
+	/**
+	 * Records a failed refresh in the state collection, keeping the high water mark.
+	 * @return a future completed when recorded, even if recording fails
+	 */
+	private Future<Void> saveFailure(String error) {
+		if (stateCollection == null) {
+			return Future.succeededFuture();
+		}
+		final Promise<Void> promise = Promise.promise();
+		final JsonObject state = new JsonObject()
+				.put("lastAttempt", MongoDb.now())
+				.put("lastOutcome", "failed")
+				.put("lastError", error);
+		mongo.update(stateCollection, new JsonObject().put("_id", target), new JsonObject().put("$set", state),
+				true, false, message -> promise.complete());
+		return promise.future();
+	}
+
+	/**
+	 * @return the greatest high water mark of the source documents changed since from, or
+	 * null if none changed
+	 */
+	private Future<Object> maxHighWaterMark(Object from) {
+		final JsonArray pipeline = new JsonArray();
+		if (from != null) {
+			pipeline.add(new JsonObject().put("$match", range(from, null)));
+		}
+		pipeline.add(new JsonObject().put("$group", new JsonObject()
+				.putNull("_id")
+				.put("max", new JsonObject().put("$max", "$" + highWaterMarkField))));
+		return mongo.aggregate(source.getCommand().getString("aggregate"), pipeline).map(results ->
+				results == null || results.isEmpty() ? null : results.getJsonObject(0).getValue("max"));
+	}
+
+	private Future<JsonObject> merge(Object from, Object to) {
+		final JsonObject command = source.getCommand().copy();
+		final JsonArray pipeline = new JsonArray();
+		if (to != null) {
+			// bounded so that documents changed during the refresh are read by the next one
+			pipeline.add(new JsonObject().put("$match", range(from, to)));
+		}
+		pipeline.addAll(command.getJsonArray("pipeline"));
+		pipeline.add(new JsonObject().put("$merge", new JsonObject()
+				.put("into", target)
+				.put("on", on)
+				.put("whenMatched", whenMatched)
+				.put("whenNotMatched", "insert")));
+		command.put("pipeline", pipeline);
+		final Promise<JsonObject> promise = Promise.promise();
+		final DeliveryOptions deliveryOptions = timeoutMillis > 0L ?
+				new DeliveryOptions().setSendTimeout(timeoutMillis) : null;
+		mongo.command(command.encode(), deliveryOptions, message -> {
+			if (MongoDb.isOk(message.body())) {
+				promise.complete(new JsonObject().put("incremental", from != null));
+			} else {
+				promise.fail(MongoDb.toErrorStr(message.body()));
+			}
+		});
+		return promise.future();
+	}
+
+	private JsonObject range(Object from, Object to) {
+		final JsonObject range = new JsonObject();
+		if (from != null) {
+			range.put("$gt", from);
+		}
+		if (to != null) {
+			range.put("$lte", to);
+		}
+		return new JsonObject().put(highWaterMarkField, range);
+	}
+
+}
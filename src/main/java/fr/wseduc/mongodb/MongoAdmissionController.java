@@ -0,0 +1,199 @@
+package fr.wseduc.mongodb;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Bounds the number of requests in flight to the persistor, globally and per collection.
+ * Requests over the limits wait in a bounded queue per {@link RequestPriority} lane, and are
+ * rejected when their lane is full. Queued requests are sent on the context of their caller,
+ * and fail when they wait longer than the queue timeout or their delivery timeout.
+ */
+class MongoAdmissionController {
+
+	static final String REJECTED = "mongodb.admission.rejected";
+	static final String TIMEOUT = "mongodb.admission.timeout";
+	/** delivery options header of the requests sent without admission, as change stream getMores */
+	static final String EXEMPT_HEADER = "mongodb-admission-exempt";
+
+	private final int maxInFlight;
+	private final int maxInFlightPerCollection;
+	private final int maxQueued;
+	private final long queueTimeoutMillis;
+	private final ArrayDeque<Pending>[] lanes;
+	private final Map<String, Integer> inFlightPerCollection = new HashMap<>();
+	private int inFlight;
+	private long rejected;
+	private long timedOut;
+
+	@SuppressWarnings("unchecked")
+	MongoAdmissionController(int maxInFlight, int maxInFlightPerCollection, int maxQueued, long queueTimeoutMillis) {
+		this.maxInFlight = Math.max(1, maxInFlight);
+		this.maxInFlightPerCollection = maxInFlightPerCollection > 0 ? maxInFlightPerCollection : Integer.MAX_VALUE;
+		this.maxQueued = Math.max(0, maxQueued);
+		this.queueTimeoutMillis = queueTimeoutMillis;
+		this.lanes = new ArrayDeque[RequestPriority.values().length];
+		for (int i = 0; i < lanes.length; i++) {
+			lanes[i] = new ArrayDeque<>();
+		}
+	}
+
+	static DeliveryOptions exempt(DeliveryOptions deliveryOptions) {
+		final DeliveryOptions options = deliveryOptions == null ? new DeliveryOptions() : deliveryOptions;
+		options.addHeader(EXEMPT_HEADER, "true");
+		return options;
+	}
+
+	static boolean isExempt(DeliveryOptions deliveryOptions) {
+		final MultiMap headers = deliveryOptions == null ? null : deliveryOptions.getHeaders();
+		return headers != null && headers.contains(EXEMPT_HEADER);
+	}
+
+	/**
+	 * @param sendTimeoutMillis the delivery timeout of the request, bounding its time in the queue
+	 */
+	Future<Message<JsonObject>> submit(String collection, RequestPriority priority, long sendTimeoutMillis,
+			Supplier<Future<Message<JsonObject>>> request) {
+		final Pending pending;
+		synchronized (this) {
+			if (canAdmit(collection)) {
+				acquire(collection);
+				pending = null;
+			} else if (lanes[priority.ordinal()].size() < maxQueued) {
+				pending = new Pending(collection, priority, request, Vertx.currentContext());
+				lanes[priority.ordinal()].add(pending);
+			} else {
+				rejected++;
+				return Future.failedFuture(REJECTED);
+			}
+		}
+		if (pending != null) {
+			final long timeout = queueTimeoutMillis > 0L ?
+					Math.min(queueTimeoutMillis, sendTimeoutMillis) : sendTimeoutMillis;
+			if (pending.context != null && timeout > 0L) {
+				// timers need a vertx instance, requests queued outside of vertx threads only
+				// wait for a slot
+				pending.timerId = pending.context.owner().setTimer(timeout, id -> expire(pending));
+			}
+			return pending.promise.future();
+		}
+		return run(collection, request);
+	}
+
+	synchronized JsonObject stats() {
+		final JsonObject queued = new JsonObject();
+		for (RequestPriority priority : RequestPriority.values()) {
+			queued.put(priority.name(), lanes[priority.ordinal()].size());
+		}
+		return new JsonObject()
+				.put("inFlight", inFlight)
+				.put("queued", queued)
+				.put("rejected", rejected)
+				.put("timedOut", timedOut);
+	}
+
+	private Future<Message<JsonObject>> run(String collection, Supplier<Future<Message<JsonObject>>> request) {
+		Future<Message<JsonObject>> future;
+		try {
+			future = request.get();
+		} catch (RuntimeException e) {
+			future = Future.failedFuture(e);
+		}
+		return future.onComplete(ar -> release(collection));
+	}
+
+	private void release(String collection) {
+		final Pending next;
+		synchronized (this) {
+			inFlight--;
+			if (collection != null) {
+				inFlightPerCollection.computeIfPresent(collection, (k, n) -> n > 1 ? n - 1 : null);
+			}
+			next = poll();
+			if (next != null) {
+				acquire(next.collection);
+			}
+		}
+		if (next != null) {
+			if (next.context == null || next.context == Vertx.currentContext()) {
+				next.start();
+			} else {
+				next.context.runOnContext(v -> next.start());
+			}
+		}
+	}
+
+	private void expire(Pending pending) {
+		synchronized (this) {
+			if (!lanes[pending.priority.ordinal()].remove(pending)) {
+				// already admitted
+				return;
+			}
+			timedOut++;
+		}
+		pending.promise.fail(TIMEOUT);
+	}
+
+	private Pending poll() {
+		for (ArrayDeque<Pending> lane : lanes) {
+			final Iterator<Pending> it = lane.iterator();
+			while (it.hasNext()) {
+				final Pending pending = it.next();
+				if (canAdmit(pending.collection)) {
+					it.remove();
+					return pending;
+				}
+			}
+		}
+		return null;
+	}
+
+	private boolean canAdmit(String collection) {
+		return inFlight < maxInFlight && (collection == null ||
+				inFlightPerCollection.getOrDefault(collection, 0) < maxInFlightPerCollection);
+	}
+
+	private void acquire(String collection) {
+		inFlight++;
+		if (collection != null) {
+			inFlightPerCollection.merge(collection, 1, Integer::sum);
+		}
+	}
+
+	private class Pending {
+		private final String collection;
+		private final RequestPriority priority;
+		private final Supplier<Future<Message<JsonObject>>> request;
+		private final Context context;
+		private final Promise<Message<JsonObject>> promise = Promise.promise();
+		private volatile long timerId = -1L;
+
+		private Pending(String collection, RequestPriority priority, Supplier<Future<Message<JsonObject>>> request,
+				Context context) {
+			this.collection = collection;
+			this.priority = priority;
+			this.request = request;
+			this.context = context;
+		}
+
+		private void start() {
+			if (timerId >= 0L) {
+				context.owner().cancelTimer(timerId);
+			}
+			run(collection, request).onComplete(promise);
+		}
+	}
+
+}
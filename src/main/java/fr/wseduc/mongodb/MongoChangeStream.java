@@ -0,0 +1,50 @@
+package fr.wseduc.mongodb;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Stream of the change events of a collection, read from a $changeStream aggregation. The
+ * resume token of the last handled event, or of the last empty batch, lets a new stream
+ * opened with {@link MongoDb#watch(String, JsonArray, JsonObject)} start right after it.
+ */
+public class MongoChangeStream extends MongoCursorStream {
+
+	private JsonObject resumeToken;
+	private JsonObject batchResumeToken;
+	private int batchRemaining;
+
+	MongoChangeStream(MongoDb mongo, String collection, JsonObject command, int batchSize, JsonObject resumeToken) {
+		super(mongo, collection, command, batchSize);
+		this.resumeToken = resumeToken;
+	}
+
+	/**
+	 * @return the token to resume the stream after the last handled event, null if unknown
+	 */
+	public synchronized JsonObject getResumeToken() {
+		return resumeToken;
+	}
+
+	@Override
+	synchronized void batchReceived(JsonObject cursor, JsonArray batch) {
+		batchResumeToken = cursor.getJsonObject("postBatchResumeToken");
+		batchRemaining = batch.size();
+		if (batchRemaining == 0 && batchResumeToken != null) {
+			resumeToken = batchResumeToken;
+		}
+	}
+
+	@Override
+	synchronized void delivered(JsonObject event) {
+		final Object id = event.getValue("_id");
+		if (id instanceof JsonObject) {
+			resumeToken = (JsonObject) id;
+		}
+		if (--batchRemaining == 0 && batchResumeToken != null) {
+			// the batch is consumed, its token covers the events filtered out by the server
+			resumeToken = batchResumeToken;
+		}
+	}
+
+}
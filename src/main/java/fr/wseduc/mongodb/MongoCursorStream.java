@@ -0,0 +1,276 @@
+package fr.wseduc.mongodb;
+
+import java.util.ArrayDeque;
+
+import io.vertx.core.Handler;
+import io.vertx.core.VertxException;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
+
+/**
+ * Read stream over a server side cursor opened with a cursor returning command
+ * (find, aggregate). Only one batch is buffered at a time : the next batch is
+ * requested with getMore when the buffered documents have been consumed and the
+ * consumer still has demand. Tailable cursors are read until the server closes them.
+ */
+public class MongoCursorStream implements ReadStream<JsonObject> {
+
+	private final MongoDb mongo;
+	private final String collection;
+	private final JsonObject command;
+	private final int batchSize;
+	private boolean adaptive;
+	private long awaitMillis = -1L;
+	private final ArrayDeque<JsonObject> pending = new ArrayDeque<>();
+
+	private Handler<JsonObject> handler;
+	private Handler<Void> endHandler;
+	private Handler<Throwable> exceptionHandler;
+	private long demand = Long.MAX_VALUE;
+	private long cursorId = -1L;
+	private boolean fetching;
+	private boolean draining;
+	private boolean closed;
+
+	MongoCursorStream(MongoDb mongo, String collection, JsonObject command, int batchSize) {
+		this.mongo = mongo;
+		this.collection = collection;
+		this.command = command;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Sizes the batches with the adaptive batch size of {@link MongoDb} instead of batchSize.
+	 */
+	MongoCursorStream adaptive() {
+		this.adaptive = true;
+		return this;
+	}
+
+	/**
+	 * Keeps reading a tailable cursor, as a change stream : each getMore waits up to
+	 * awaitMillis on the server for new documents, and the stream only ends when the
+	 * server closes the cursor.
+	 */
+	MongoCursorStream tailable(long awaitMillis) {
+		this.awaitMillis = Math.max(0L, awaitMillis);
+		return this;
+	}
+
+	/**
+	 * Called with the cursor of each batch received, before its documents are handled.
+	 */
+	void batchReceived(JsonObject cursor, JsonArray batch) {
+	}
+
+	/**
+	 * Called before document is handed to the handler.
+	 */
+	void delivered(JsonObject document) {
+	}
+
+	@Override
+	public synchronized MongoCursorStream exceptionHandler(Handler<Throwable> handler) {
+		this.exceptionHandler = handler;
+		return this;
+	}
+
+	@Override
+	public MongoCursorStream handler(Handler<JsonObject> handler) {
+		synchronized (this) {
+			this.handler = handler;
+			if (handler == null || closed) {
+				return this;
+			}
+		}
+		drain();
+		return this;
+	}
+
+	@Override
+	public synchronized MongoCursorStream pause() {
+		demand = 0L;
+		return this;
+	}
+
+	@Override
+	public MongoCursorStream resume() {
+		return fetch(Long.MAX_VALUE);
+	}
+
+	@Override
+	public MongoCursorStream fetch(long amount) {
+		if (amount < 0L) {
+			throw new IllegalArgumentException("Invalid fetch amount : " + amount);
+		}
+		synchronized (this) {
+			demand += amount;
+			if (demand < 0L) {
+				demand = Long.MAX_VALUE;
+			}
+		}
+		drain();
+		return this;
+	}
+
+	@Override
+	public synchronized MongoCursorStream endHandler(Handler<Void> endHandler) {
+		this.endHandler = endHandler;
+		return this;
+	}
+
+	/**
+	 * Stops the stream and releases the server side cursor if it is not exhausted.
+	 */
+	public void close() {
+		final long id;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			pending.clear();
+			id = cursorId;
+		}
+		killCursor(id);
+	}
+
+	private void drain() {
+		Handler<JsonObject> h;
+		JsonObject document;
+		synchronized (this) {
+			if (draining) {
+				return;
+			}
+			draining = true;
+		}
+		try {
+			while (true) {
+				synchronized (this) {
+					h = handler;
+					if (closed || h == null || demand == 0L || pending.isEmpty()) {
+						break;
+					}
+					if (demand != Long.MAX_VALUE) {
+						demand--;
+					}
+					document = pending.poll();
+				}
+				delivered(document);
+				h.handle(document);
+			}
+		} finally {
+			synchronized (this) {
+				draining = false;
+			}
+		}
+		next();
+	}
+
+	private void next() {
+		final boolean end;
+		final long id;
+		synchronized (this) {
+			if (closed || fetching || handler == null || !pending.isEmpty()) {
+				return;
+			}
+			id = cursorId;
+			end = id == 0L;
+			if (end) {
+				closed = true;
+			} else if (demand > 0L) {
+				fetching = true;
+			} else {
+				return;
+			}
+		}
+		if (end) {
+			final Handler<Void> h = endHandler;
+			if (h != null) {
+				h.handle(null);
+			}
+		} else if (id < 0L) {
+			if (adaptive) {
+				command.put("batchSize", mongo.adaptiveBatchSize(collection));
+			}
+			mongo.command(command.encode(), message -> onBatch(message, "firstBatch"));
+		} else if (awaitMillis >= 0L) {
+			mongo.command(new JsonObject()
+					.put("getMore", id)
+					.put("collection", collection)
+					.put("batchSize", batchSize)
+					.put("maxTimeMS", awaitMillis).encode(),
+					// waits on the server, it would hold an admission slot for up to awaitMillis
+					MongoAdmissionController.exempt(null), message -> onBatch(message, "nextBatch"));
+		} else if (adaptive) {
+			mongo.getNextBatch(collection, id, message -> onBatch(message, "nextBatch"));
+		} else {
+			mongo.getNextBatch(collection, id, batchSize, message -> onBatch(message, "nextBatch"));
+		}
+	}
+
+	private void onBatch(Message<JsonObject> message, String batchField) {
+		final JsonObject body = message.body();
+		if (!MongoDb.isOk(body)) {
+			fail(new VertxException(MongoDb.toErrorStr(body)));
+			return;
+		}
+		final JsonObject cursor = body.getJsonObject("result", new JsonObject())
+				.getJsonObject("cursor", new JsonObject());
+		final JsonArray batch = cursor.getJsonArray(batchField, new JsonArray());
+		if ("firstBatch".equals(batchField)) {
+			// next batches are observed by getNextBatch
+			mongo.observeBatch(collection, batch);
+		}
+		batchReceived(cursor, batch);
+		final boolean drop;
+		synchronized (this) {
+			fetching = false;
+			cursorId = cursor.getLong("id", 0L);
+			drop = closed;
+			if (!drop) {
+				for (Object o : batch) {
+					if (o instanceof JsonObject) {
+						pending.add((JsonObject) o);
+					}
+				}
+			}
+		}
+		if (drop) {
+			// closed while the batch was in flight
+			killCursor(cursor.getLong("id", 0L));
+			return;
+		}
+		drain();
+	}
+
+	private void fail(Throwable cause) {
+		final Handler<Throwable> h;
+		final long id;
+		synchronized (this) {
+			fetching = false;
+			if (closed) {
+				return;
+			}
+			closed = true;
+			pending.clear();
+			id = cursorId;
+			h = exceptionHandler;
+		}
+		killCursor(id);
+		if (h != null) {
+			h.handle(cause);
+		}
+	}
+
+	private void killCursor(long id) {
+		if (id > 0L) {
+			mongo.command(new JsonObject()
+					.put("killCursors", collection)
+					.put("cursors", new JsonArray().add(id)).encode());
+		}
+	}
+
+}
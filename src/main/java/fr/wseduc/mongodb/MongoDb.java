@@ -21,17 +21,28 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.time.*;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 
 import com.mongodb.ReadPreference;
 import io.vertx.core.Promise;
 import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
 import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.eventbus.EventBus;
 import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.json.DecodeException;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 
@@ -39,9 +50,26 @@ public class MongoDb implements MongoDbAPI {
 
 	private EventBus eb;
 	private String address;
+	private boolean localCodec;
+	private volatile MongoWriteCoalescer writeCoalescer;
+	private volatile MongoResultCache resultCache;
+	private volatile MongoReadDeduplicator readDeduplicator;
+	private volatile MongoDbMetrics metrics;
+	private volatile AdaptiveBatchSizer batchSizer;
+	private volatile MongoAdmissionController admission;
+	private volatile MongoHedgePolicy hedgePolicy;
+	private volatile boolean deadlinePropagation;
+	private volatile MongoWriteChunker writeChunker;
+	private volatile MongoSlowQueryLog slowQueryLog;
+	private volatile MongoIndexAdvisor indexAdvisor;
+	private final ThreadLocal<RequestPriority> currentPriority = ThreadLocal.withInitial(() -> RequestPriority.INTERACTIVE);
 
 	public static final DateTimeFormatter dtf = DateTimeFormatter.ISO_DATE;
 	public static final SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssX");
+	private static final int DEFAULT_STREAM_BATCH_SIZE = 100;
+	private static final int DEFAULT_LAZY_BATCH_SIZE = 1000;
+	private static final String MORE_EXIST = "more-exist";
+	private static final long DEFAULT_WATCH_AWAIT_MILLIS = 1000L;
 
 
 	private MongoDb() {
@@ -56,8 +84,244 @@ public class MongoDb implements MongoDbAPI {
 	}
 
 	public void init(EventBus eb, String address) {
+		init(eb, address, false);
+	}
+
+	/**
+	 * @param localCodec if true, requests are sent with {@link JsonObjectLocalCodec} and passed
+	 *                   to the persistor by reference instead of being copied. Payload documents
+	 *                   must not be modified once sent. A persistor running in the same JVM can
+	 *                   reply with the same codec name to avoid the reply copy too.
+	 */
+	public void init(EventBus eb, String address, boolean localCodec) {
 		this.eb = eb;
 		this.address = address;
+		if (localCodec) {
+			try {
+				eb.registerCodec(new JsonObjectLocalCodec());
+			} catch (IllegalStateException e) {
+				// already registered on this event bus
+			}
+		}
+		this.localCodec = localCodec;
+	}
+
+	/**
+	 * Merges the single document inserts and saves without _id, sent without write concern
+	 * nor delivery options, into multiple inserts per collection. Coalesced writes reply with
+	 * the status and the _id of the written document. When a merged insert fails, its
+	 * documents are inserted again one at a time so that each write gets its own result.
+	 * @param vertx the vertx instance used for the window timers
+	 * @param windowMillis the maximum time a write waits for other writes
+	 * @param maxDocuments the number of pending documents sending the insert immediately
+	 */
+	public void enableWriteCoalescing(Vertx vertx, long windowMillis, int maxDocuments) {
+		final MongoWriteCoalescer previous = this.writeCoalescer;
+		this.writeCoalescer = new MongoWriteCoalescer(vertx, this, windowMillis, maxDocuments);
+		if (previous != null) {
+			previous.flushAll();
+		}
+	}
+
+	public void disableWriteCoalescing() {
+		final MongoWriteCoalescer previous = this.writeCoalescer;
+		this.writeCoalescer = null;
+		if (previous != null) {
+			previous.flushAll();
+		}
+	}
+
+	/**
+	 * Caches the replies of findOne, count and distinct requests. Writes sent through this
+	 * instance invalidate the entries of the written collection.
+	 * @param maxEntries the maximum number of cached replies
+	 * @param ttlMillis the maximum age of a cached reply
+	 * @param collections the cached collections, all collections if none
+	 */
+	public void enableResultCache(int maxEntries, long ttlMillis, String... collections) {
+		this.resultCache = new MongoResultCache(maxEntries, ttlMillis, new HashSet<>(Arrays.asList(collections)));
+	}
+
+	public void disableResultCache() {
+		this.resultCache = null;
+	}
+
+	public MongoResultCache getResultCache() {
+		return resultCache;
+	}
+
+	/**
+	 * Attaches find, findOne and count requests identical to a request still in flight
+	 * to its reply, instead of sending them to the persistor.
+	 */
+	public void enableReadDeduplication() {
+		this.readDeduplicator = new MongoReadDeduplicator();
+	}
+
+	public void disableReadDeduplication() {
+		this.readDeduplicator = null;
+	}
+
+	/**
+	 * @param metrics the instrumentation called for every request sent to the persistor,
+	 *                null to disable it
+	 */
+	public void setMetrics(MongoDbMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public MongoDbMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Sizes the batches of getNextBatch(collection, cursorId, handler) and of adaptive
+	 * find streams so that each reply weighs about targetReplyBytes, from the document sizes
+	 * observed per collection. find(...) requests keep their batch_size, since their
+	 * callers expect the whole result in one reply.
+	 */
+	public void enableAdaptiveBatchSize(long targetReplyBytes, int minBatchSize, int maxBatchSize) {
+		this.batchSizer = new AdaptiveBatchSizer(targetReplyBytes, minBatchSize, maxBatchSize);
+	}
+
+	public void disableAdaptiveBatchSize() {
+		this.batchSizer = null;
+	}
+
+	/**
+	 * Bounds the number of requests in flight to the persistor. Requests over the limits wait
+	 * in a queue per {@link RequestPriority} lane, chosen with the {@link RequestPriority#HEADER}
+	 * delivery options header or with {@link #runWithPriority(RequestPriority, Runnable)}, and
+	 * fail with "mongodb.admission.rejected" when their lane is full. The getMores of change
+	 * streams, waiting on the server for new events, are not counted. Queued requests fail with
+	 * "mongodb.admission.timeout" when they are still waiting after their delivery timeout.
+	 * @param maxInFlight the maximum number of requests in flight
+	 * @param maxInFlightPerCollection the maximum number of requests in flight on a collection, 0 for no limit
+	 * @param maxQueuedPerLane the maximum number of waiting requests per lane
+	 */
+	public void enableAdmissionControl(int maxInFlight, int maxInFlightPerCollection, int maxQueuedPerLane) {
+		enableAdmissionControl(maxInFlight, maxInFlightPerCollection, maxQueuedPerLane, 0L);
+	}
+
+	/**
+	 * @param queueTimeoutMillis the maximum time a request waits for admission, if shorter than
+	 *                           its delivery timeout, 0 for the delivery timeout only
+	 */
+	public void enableAdmissionControl(int maxInFlight, int maxInFlightPerCollection, int maxQueuedPerLane,
+			long queueTimeoutMillis) {
+		this.admission = new MongoAdmissionController(maxInFlight, maxInFlightPerCollection, maxQueuedPerLane,
+				queueTimeoutMillis);
+	}
+
+	public void disableAdmissionControl() {
+		this.admission = null;
+	}
+
+	public JsonObject getAdmissionStats() {
+		final MongoAdmissionController controller = this.admission;
+		return controller != null ? controller.stats() : new JsonObject();
+	}
+
+	/**
+	 * Sends a second copy of the find, findone and count requests reading from a non primary
+	 * member when no reply came after the given percentile of the recent latencies of these
+	 * requests. The first successful reply is used.
+	 * @param percentile the latency percentile after which a request is hedged, as 0.95
+	 * @param minDelayMillis the minimum delay before hedging a request
+	 * @param budgetRatio the maximum ratio of hedged requests, as 0.05
+	 */
+	public void enableHedgedReads(Vertx vertx, double percentile, long minDelayMillis, double budgetRatio) {
+		this.hedgePolicy = new MongoHedgePolicy(vertx, percentile, minDelayMillis, budgetRatio);
+	}
+
+	public void disableHedgedReads() {
+		this.hedgePolicy = null;
+	}
+
+	public JsonObject getHedgedReadsStats() {
+		final MongoHedgePolicy policy = this.hedgePolicy;
+		return policy != null ? policy.stats() : new JsonObject();
+	}
+
+	/**
+	 * Sends the time left before the delivery options timeout as the server time limit of
+	 * find, findone, count, distinct and aggregate requests, and of find, aggregate, count and
+	 * distinct commands. Requests with no time left, as after waiting for admission, fail with
+	 * "mongodb.deadline.exceeded" without being sent. Requests sent without delivery options
+	 * use the default event bus timeout.
+	 */
+	public void enableDeadlinePropagation() {
+		this.deadlinePropagation = true;
+	}
+
+	public void disableDeadlinePropagation() {
+		this.deadlinePropagation = false;
+	}
+
+	/**
+	 * Splits the documents of multiple inserts and the commands of bulks into several requests
+	 * when they exceed maxBytes estimated BSON bytes or maxOperations items. The replies of the
+	 * requests are merged into a single reply, with numeric fields summed and the failed chunks
+	 * listed in "errors".
+	 * @param concurrency the maximum number of chunks sent at the same time by unordered bulks
+	 */
+	public void enableWriteChunking(int maxBytes, int maxOperations, int concurrency) {
+		this.writeChunker = new MongoWriteChunker(maxBytes, maxOperations, concurrency);
+	}
+
+	public void disableWriteChunking() {
+		this.writeChunker = null;
+	}
+
+	/**
+	 * Records the find, findone, count, aggregate and find_and_modify requests, sent directly
+	 * or as commands, slower than thresholdMillis, with their literal values redacted.
+	 * @param capacity the number of slow requests kept
+	 * @param explainsPerMinute the maximum number of slow requests explained per minute
+	 */
+	public void enableSlowQueryLog(long thresholdMillis, int capacity, int explainsPerMinute) {
+		this.slowQueryLog = new MongoSlowQueryLog(this, thresholdMillis, capacity, explainsPerMinute);
+	}
+
+	public void disableSlowQueryLog() {
+		this.slowQueryLog = null;
+	}
+
+	public MongoSlowQueryLog getSlowQueryLog() {
+		return slowQueryLog;
+	}
+
+	/**
+	 * Observes the shapes of the queries sent, to suggest indexes with
+	 * {@link MongoIndexAdvisor#advise(String)}.
+	 * @param maxShapes the maximum number of distinct shapes observed
+	 */
+	public void enableIndexAdvisor(int maxShapes) {
+		this.indexAdvisor = new MongoIndexAdvisor(this, maxShapes);
+	}
+
+	public void disableIndexAdvisor() {
+		this.indexAdvisor = null;
+	}
+
+	public MongoIndexAdvisor getIndexAdvisor() {
+		return indexAdvisor;
+	}
+
+	/**
+	 * Runs action with the requests it sends synchronously in the given admission lane, unless
+	 * a request sets its lane in its delivery options headers. The lane is kept by the calling
+	 * thread during action only : requests sent later from callbacks or future continuations
+	 * are interactive, set their lane with {@link RequestPriority#apply(DeliveryOptions)}.
+	 */
+	public void runWithPriority(RequestPriority priority, Runnable action) {
+		final RequestPriority previous = currentPriority.get();
+		currentPriority.set(priority);
+		try {
+			action.run();
+		} finally {
+			currentPriority.set(previous);
+		}
 	}
 
 	public boolean isInitialized() {
@@ -71,6 +335,13 @@ public class MongoDb implements MongoDbAPI {
 
 	public void save(String collection, JsonObject document, WriteConcern writeConcern,
 			DeliveryOptions deliveryOptions, final Handler<Message<JsonObject>> callback) {
+		final MongoWriteCoalescer coalescer = this.writeCoalescer;
+		if (coalescer != null && writeConcern == null && deliveryOptions == null
+				&& document.getValue("_id") == null) {
+			// a save without _id is an insert
+			coalescer.insert(collection, document, callback);
+			return;
+		}
 		JsonObject jo = new JsonObject();
 		jo.put("action", "save");
 		jo.put("collection", collection);
@@ -96,9 +367,32 @@ public class MongoDb implements MongoDbAPI {
 
 	public void insert(String collection, JsonArray documents, WriteConcern writeConcern,
 			DeliveryOptions deliveryOptions, Handler<Message<JsonObject>> callback) {
+		final MongoWriteCoalescer coalescer = this.writeCoalescer;
+		if (coalescer != null && writeConcern == null && deliveryOptions == null && documents.size() == 1
+				&& documents.getJsonObject(0).getValue("_id") == null) {
+			coalescer.insert(collection, documents.getJsonObject(0), callback);
+			return;
+		}
+		sendInsert(collection, documents, writeConcern, deliveryOptions, callback);
+	}
+
+	/**
+	 * Sends an insert without going through the write coalescer, which flushes its batches here.
+	 */
+	void sendInsert(String collection, JsonArray documents, WriteConcern writeConcern,
+			DeliveryOptions deliveryOptions, Handler<Message<JsonObject>> callback) {
 		JsonObject jo = new JsonObject();
 		jo.put("action", "insert");
 		jo.put("collection", collection);
+		final MongoWriteChunker chunker = this.writeChunker;
+		if (chunker != null && documents.size() > 1 && chunker.needsSplit(documents)) {
+			if (writeConcern != null) {
+				jo.put("write_concern", writeConcern.name());
+			}
+			chunker.execute(jo, "documents", documents, true,
+					chunk -> sendRequest(chunk, deliveryOptions, null), callback);
+			return;
+		}
 		if (documents.size() > 1) {
 			jo.put("documents", documents);
 			jo.put("multiple", true);
@@ -235,6 +529,138 @@ public class MongoDb implements MongoDbAPI {
 		find(collection, matcher, null, null, -1, -1, Integer.MAX_VALUE, callback);
 	}
 
+	/**
+	 * Streams the documents matching a query. The query is run with the find command
+	 * and the following batches are pulled with getMore only when the stream has demand,
+	 * so at most one batch of batchSize documents is held in memory.
+	 * @param collection the collection to query
+	 * @param matcher the query filter
+	 * @param sort the sort specification, may be null
+	 * @param keys the projection, may be null
+	 * @param batchSize the number of documents fetched per round trip
+	 * @return a stream of documents, the query is sent once a handler is set
+	 */
+	public MongoCursorStream findStream(String collection, JsonObject matcher, JsonObject sort, JsonObject keys,
+			int batchSize) {
+		final JsonObject command = new JsonObject();
+		command.put("find", collection);
+		if (matcher != null) {
+			command.put("filter", matcher);
+		}
+		if (sort != null) {
+			command.put("sort", sort);
+		}
+		if (keys != null) {
+			command.put("projection", keys);
+		}
+		command.put("batchSize", batchSize);
+		return new MongoCursorStream(this, collection, command, batchSize);
+	}
+
+	public MongoChangeStream watch(String collection, JsonArray pipeline) {
+		return watch(collection, pipeline, null);
+	}
+
+	public MongoChangeStream watch(String collection, JsonArray pipeline, JsonObject resumeToken) {
+		return watch(collection, pipeline, resumeToken, null, DEFAULT_STREAM_BATCH_SIZE, DEFAULT_WATCH_AWAIT_MILLIS);
+	}
+
+	/**
+	 * Streams the changes of a collection from a change stream. The stream is read with
+	 * getMore requests waiting on the server for new events, only while it has demand.
+	 * @param pipeline stages filtering or transforming the change events, may be null
+	 * @param resumeToken the token of the event after which the stream starts, as given by
+	 * {@link MongoChangeStream#getResumeToken()}, null to start with the next change
+	 * @param options options of the $changeStream stage, as fullDocument, may be null
+	 * @param batchSize the maximum number of events fetched per round trip
+	 * @param awaitMillis the time each getMore waits for new events, lower than the delivery timeout
+	 * @return a stream of change events, opened once a handler is set
+	 */
+	public MongoChangeStream watch(String collection, JsonArray pipeline, JsonObject resumeToken, JsonObject options,
+			int batchSize, long awaitMillis) {
+		final JsonObject changeStream = options != null ? options.copy() : new JsonObject();
+		if (resumeToken != null) {
+			changeStream.put("resumeAfter", resumeToken);
+		}
+		final JsonArray stages = new JsonArray().add(new JsonObject().put("$changeStream", changeStream));
+		if (pipeline != null) {
+			stages.addAll(pipeline);
+		}
+		final JsonObject command = new JsonObject()
+				.put("aggregate", collection)
+				.put("pipeline", stages)
+				.put("cursor", new JsonObject().put("batchSize", batchSize));
+		final MongoChangeStream stream = new MongoChangeStream(this, collection, command, batchSize, resumeToken);
+		stream.tailable(awaitMillis);
+		return stream;
+	}
+
+	/**
+	 * Prepares a scan of the documents matching a query, split into partitions of _id ranges
+	 * read concurrently.
+	 * @param partitions the number of _id ranges
+	 * @param parallelism the maximum number of partitions read at the same time by the merged stream
+	 * @param batchSize the number of documents fetched per round trip in each partition
+	 */
+	public MongoParallelScan parallelScan(String collection, JsonObject matcher, JsonObject keys, int partitions,
+			int parallelism, int batchSize) {
+		return new MongoParallelScan(this, collection, matcher, keys, partitions, parallelism, batchSize);
+	}
+
+	/**
+	 * Streams the documents matching a query, with batches sized by the adaptive batch size
+	 * (see {@link #enableAdaptiveBatchSize(long, int, int)}), or with a default size of 100
+	 * documents if it is disabled.
+	 */
+	public MongoCursorStream findStream(String collection, JsonObject matcher, JsonObject sort, JsonObject keys) {
+		final MongoCursorStream stream = findStream(collection, matcher, sort, keys, DEFAULT_STREAM_BATCH_SIZE);
+		return batchSizer != null ? stream.adaptive() : stream;
+	}
+
+	/**
+	 * Gets a page of documents with range based pagination (see {@link KeysetPagination}) :
+	 * every page costs the same, whatever its position.
+	 * @param sort the sort keys, _id is added as last key if missing
+	 * @param pageSize the number of documents per page
+	 * @param token the continuation token of the previous page, null for the first page
+	 * @param callback the find reply, with the continuation token of the next page in "next",
+	 *                 null on the last page
+	 */
+	public void findPage(String collection, JsonObject matcher, JsonObject sort, JsonObject keys, int pageSize,
+			String token, Handler<Message<JsonObject>> callback) {
+		final JsonObject totalSort = KeysetPagination.sortWithTieBreaker(sort);
+		final JsonObject pageMatcher;
+		try {
+			if (pageSize < 1) {
+				throw new IllegalArgumentException("Invalid page size : " + pageSize);
+			}
+			pageMatcher = KeysetPagination.pageMatcher(matcher, totalSort, token);
+		} catch (IllegalArgumentException e) {
+			if (callback != null) {
+				callback.handle(new MongoResultMessage().error(e.getMessage()));
+			}
+			return;
+		}
+		// one more document tells whether a next page exists
+		find(collection, pageMatcher, totalSort, KeysetPagination.keysWithSortFields(keys, totalSort), -1,
+				pageSize + 1, Integer.MAX_VALUE, message -> {
+			final JsonObject body = message.body();
+			if (isOk(body)) {
+				final JsonArray results = body.getJsonArray("results", new JsonArray());
+				String next = null;
+				if (results.size() > pageSize) {
+					results.remove(pageSize);
+					next = KeysetPagination.token(results.getJsonObject(pageSize - 1), totalSort);
+				}
+				KeysetPagination.removeFields(results, KeysetPagination.hiddenSortFields(keys, totalSort));
+				body.put("next", next);
+			}
+			if (callback != null) {
+				callback.handle(message);
+			}
+		});
+	}
+
 	public void findOne(String collection, JsonObject matcher, JsonObject keys, JsonArray fetch,
 			Handler<Message<JsonObject>> callback) {
 		findOne(collection, matcher, keys, fetch, null, callback);
@@ -311,6 +737,66 @@ public class MongoDb implements MongoDbAPI {
 		sendRequest(jo, null, callback);
 	}
 
+	/**
+	 * Prepares a find request whose matcher may contain {@link MongoPreparedRequest#param(int)}
+	 * placeholders, to run with {@link #execute(MongoPreparedRequest, Handler, Object...)}.
+	 */
+	public MongoPreparedRequest prepareFind(String collection, JsonObject matcher, JsonObject sort, JsonObject keys,
+			int skip, int limit, int batchSize) {
+		JsonObject jo = new JsonObject();
+		jo.put("action", "find");
+		jo.put("collection", collection);
+		jo.put("matcher", matcher);
+		jo.put("sort", sort);
+		jo.put("keys", keys);
+		jo.put("skip", skip);
+		jo.put("limit", limit);
+		jo.put("batch_size", batchSize);
+		return new MongoPreparedRequest(jo, "matcher");
+	}
+
+	public MongoPreparedRequest prepareFind(String collection, JsonObject matcher, JsonObject sort, JsonObject keys) {
+		return prepareFind(collection, matcher, sort, keys, -1, -1, Integer.MAX_VALUE);
+	}
+
+	public MongoPreparedRequest prepareFindOne(String collection, JsonObject matcher, JsonObject keys) {
+		JsonObject jo = new JsonObject();
+		jo.put("action", "findone");
+		jo.put("collection", collection);
+		jo.put("matcher", matcher);
+		jo.put("keys", keys);
+		return new MongoPreparedRequest(jo, "matcher");
+	}
+
+	public MongoPreparedRequest prepareCount(String collection, JsonObject matcher) {
+		JsonObject jo = new JsonObject();
+		jo.put("action", "count");
+		jo.put("collection", collection);
+		jo.put("matcher", matcher);
+		return new MongoPreparedRequest(jo, "matcher");
+	}
+
+	public void execute(MongoPreparedRequest request, Handler<Message<JsonObject>> callback, Object... params) {
+		execute(request, null, callback, params);
+	}
+
+	/**
+	 * Binding errors, as a missing parameter, are replied to callback.
+	 */
+	public void execute(MongoPreparedRequest request, DeliveryOptions deliveryOptions,
+			Handler<Message<JsonObject>> callback, Object... params) {
+		final JsonObject payload;
+		try {
+			payload = request.bind(params);
+		} catch (IllegalArgumentException e) {
+			if (callback != null) {
+				callback.handle(new MongoResultMessage().error(e.getMessage()));
+			}
+			return;
+		}
+		sendRequest(payload, deliveryOptions, callback);
+	}
+
 	public void distinct(String collection, String key, final JsonObject matcher, final String resultClassname,
 											 final Handler<Message<JsonObject>> callback) {
 		JsonObject jo = new JsonObject();
@@ -366,13 +852,31 @@ public class MongoDb implements MongoDbAPI {
 
 	public void bulk(String collection, JsonArray commands, WriteConcern writeConcern,
 			DeliveryOptions deliveryOptions, Handler<Message<JsonObject>> callback) {
+		bulk(collection, commands, true, writeConcern, deliveryOptions, callback);
+	}
+
+	/**
+	 * @param ordered false to let the persistor go on after a failed command, and to send
+	 * the chunks of a split bulk concurrently
+	 */
+	public void bulk(String collection, JsonArray commands, boolean ordered, WriteConcern writeConcern,
+			DeliveryOptions deliveryOptions, Handler<Message<JsonObject>> callback) {
 		JsonObject jo = new JsonObject();
 		jo.put("action", "bulk");
 		jo.put("collection", collection);
-		jo.put("commands", commands);
+		if (!ordered) {
+			jo.put("ordered", false);
+		}
 		if (writeConcern != null) {
 			jo.put("write_concern", writeConcern.name());
 		}
+		final MongoWriteChunker chunker = this.writeChunker;
+		if (chunker != null && chunker.needsSplit(commands)) {
+			chunker.execute(jo, "commands", commands, ordered,
+					chunk -> sendRequest(chunk, deliveryOptions, null), callback);
+			return;
+		}
+		jo.put("commands", commands);
 		sendRequest(jo, deliveryOptions, callback);
 	}
 
@@ -405,9 +909,9 @@ public class MongoDb implements MongoDbAPI {
 		.put("collection", collection)
 		.put("pipelines", pipelines);
 		final Promise<JsonArray> promise = Promise.promise();
-		eb.request(address, jo, new DeliveryOptions().setLocalOnly(true), event -> {
+		sendRequest(jo, null, null).onComplete(event -> {
 			if (event.succeeded()) {
-				final JsonObject body = (JsonObject) event.result().body();
+				final JsonObject body = event.result().body();
 				if(isOk(body)) {
 					promise.complete(body.getJsonArray("results"));
 				} else {
@@ -420,6 +924,82 @@ public class MongoDb implements MongoDbAPI {
 		return promise.future();
 	}
 
+	/**
+	 * <b>Experimental</b> : finds documents and keeps them in their BSON form, decoded field by
+	 * field when read. The request asks the persistor for "raw_results" : the mongo persistor
+	 * does not support it yet and replies with JSON results, only wrapped, see
+	 * {@link LazyResults}. Documents are fetched in batches of at most 1000 documents, all of
+	 * them are kept : use {@link #findStream(String, JsonObject, JsonObject, JsonObject, int)}
+	 * for large results.
+	 */
+	public Future<LazyResults> findLazy(String collection, JsonObject matcher, JsonObject sort, JsonObject keys,
+			int skip, int limit) {
+		final JsonObject jo = new JsonObject();
+		jo.put("action", "find");
+		jo.put("collection", collection);
+		jo.put("matcher", matcher);
+		jo.put("sort", sort);
+		jo.put("keys", keys);
+		jo.put("skip", skip);
+		jo.put("limit", limit);
+		jo.put("batch_size", limit > 0 ? Math.min(limit, DEFAULT_LAZY_BATCH_SIZE) : DEFAULT_LAZY_BATCH_SIZE);
+		jo.put(LazyResults.RAW_RESULTS, true);
+		return lazyResults(jo);
+	}
+
+	/**
+	 * <b>Experimental</b> : runs an aggregation pipeline with results decoded field by field
+	 * when read, as {@link #findLazy(String, JsonObject, JsonObject, JsonObject, int, int)}.
+	 */
+	public Future<LazyResults> aggregateLazy(String collection, JsonArray pipelines) {
+		final JsonObject jo = new JsonObject()
+				.put("action", "aggregate")
+				.put("collection", collection)
+				.put("pipelines", pipelines)
+				.put(LazyResults.RAW_RESULTS, true);
+		return lazyResults(jo);
+	}
+
+	private Future<LazyResults> lazyResults(JsonObject payload) {
+		final Promise<LazyResults> promise = Promise.promise();
+		sendRequest(payload, null, null).onComplete(event -> lazyBatch(event, new ArrayList<>(), promise));
+		return promise.future();
+	}
+
+	/**
+	 * Collects the batches of a lazy request : the persistor replies "more-exist" to a find
+	 * with more documents than its batch size, and sends the next batch as the reply to an
+	 * empty message.
+	 */
+	private void lazyBatch(AsyncResult<Message<JsonObject>> event, List<JsonObject> replies,
+			Promise<LazyResults> promise) {
+		if (event.failed()) {
+			promise.fail(event.cause().getMessage());
+			return;
+		}
+		final Message<JsonObject> message = event.result();
+		final JsonObject body = message.body();
+		final boolean more = MORE_EXIST.equals(body.getString("status"));
+		if (!more && !isOk(body)) {
+			promise.fail(toErrorStr(body));
+			return;
+		}
+		replies.add(body);
+		if (more) {
+			if (message.replyAddress() == null) {
+				promise.fail("Next batch unavailable");
+				return;
+			}
+			message.<JsonObject>replyAndRequest(new JsonObject()).onComplete(next -> lazyBatch(next, replies, promise));
+			return;
+		}
+		try {
+			promise.complete(LazyResults.of(replies));
+		} catch (IllegalArgumentException e) {
+			promise.fail(e);
+		}
+	}
+
 	public static boolean isOk(JsonObject body) {
 		return "ok".equals(body.getString("status"));
 	}
@@ -427,8 +1007,13 @@ public class MongoDb implements MongoDbAPI {
 		return body.getString("error", body.getString("message", "query helper error"));
 	}
 
+	/**
+	 * Gets the next batch of a cursor, sized by the adaptive batch size if enabled, or
+	 * with all the remaining documents otherwise.
+	 */
 	public void getNextBatch(String collection, Long cursorId, final Handler<Message<JsonObject>> handler) {
-		getNextBatch(collection, cursorId, Integer.MAX_VALUE, handler);
+		final AdaptiveBatchSizer sizer = this.batchSizer;
+		getNextBatch(collection, cursorId, sizer != null ? sizer.batchSize(collection) : Integer.MAX_VALUE, handler);
 	}
 
 	public void getNextBatch(String collection, Long cursorId, int batchSize, final Handler<Message<JsonObject>> handler){
@@ -440,7 +1025,31 @@ public class MongoDb implements MongoDbAPI {
 		JsonObject jo = new JsonObject();
 		jo.put("action", "command");
 		jo.put("command", command.toString());
-		sendRequest(jo, handler);
+		if (batchSizer == null) {
+			sendRequest(jo, handler);
+			return;
+		}
+		sendRequest(jo, message -> {
+			if (isOk(message.body())) {
+				observeBatch(collection, message.body().getJsonObject("result", new JsonObject())
+						.getJsonObject("cursor", new JsonObject()).getJsonArray("nextBatch"));
+			}
+			if (handler != null) {
+				handler.handle(message);
+			}
+		});
+	}
+
+	int adaptiveBatchSize(String collection) {
+		final AdaptiveBatchSizer sizer = this.batchSizer;
+		return sizer != null ? sizer.batchSize(collection) : Integer.MAX_VALUE;
+	}
+
+	void observeBatch(String collection, JsonArray batch) {
+		final AdaptiveBatchSizer sizer = this.batchSizer;
+		if (sizer != null) {
+			sizer.observe(collection, batch);
+		}
 	}
 
 	public void aggregateBatched(String collection, JsonObject command, int maxBatch, final Handler<Message<JsonObject>> handler) {
@@ -457,7 +1066,7 @@ public class MongoDb implements MongoDbAPI {
 						Long cursorId = previous.getLong("id",0l);
 						Promise<JsonObject> next = Promise.promise();
 						if(cursorId > 0) {
-							getNextBatch(collection, cursorId, nextMsg->{
+							getNextBatch(collection, cursorId, Integer.MAX_VALUE, nextMsg->{
 								JsonObject nextBody = nextMsg.body();
 								if(isOk(nextBody)) {
 									final JsonObject nextCursor = nextBody.getJsonObject("result", new JsonObject()).getJsonObject("cursor", new JsonObject());
@@ -484,6 +1093,23 @@ public class MongoDb implements MongoDbAPI {
 		});
 	}
 
+	/**
+	 * Calls an aggregation and hands each batch of the cursor to batchHandler as soon as it
+	 * arrives, instead of accumulating the whole result. The next getMore is sent while the
+	 * current batch is processed.
+	 * @param collection the aggregated collection
+	 * @param command the aggregate command, its cursor batchSize is used by the getMore requests too
+	 * @param maxBatch the maximum number of getMore requests
+	 * @param prefetch the maximum number of fetched batches waiting for batchHandler, 0 disables overlapping
+	 * @param batchHandler processes a batch, the returned future completes when the batch is processed
+	 * @param handler called at the end with the number of batches and documents, and "truncated" set
+	 *                if the cursor was not exhausted after maxBatch getMore requests, or with the first error
+	 */
+	public void aggregateBatched(String collection, JsonObject command, int maxBatch, int prefetch,
+			Function<JsonArray, Future<Void>> batchHandler, final Handler<Message<JsonObject>> handler) {
+		new AggregateBatchPipeline(this, collection, maxBatch, prefetch, batchHandler, handler).start(command);
+	}
+
 	public void command(String command) {
 		command(command, null);
 	}
@@ -561,6 +1187,16 @@ public class MongoDb implements MongoDbAPI {
     };
 	}
 
+	private DeliveryOptions localDeliveryOptions(DeliveryOptions deliveryOptions) {
+		final DeliveryOptions localDO = deliveryOptions == null ?
+				new DeliveryOptions() : new DeliveryOptions(deliveryOptions);
+		localDO.setLocalOnly(true);
+		if (localCodec && localDO.getCodecName() == null) {
+			localDO.setCodecName(JsonObjectLocalCodec.NAME);
+		}
+		return localDO;
+	}
+
 	private Future<Message<JsonObject>> sendRequest(final JsonObject payload,
 																									final Handler<Message<JsonObject>> callback) {
 		return sendRequest(payload, null, callback);
@@ -569,20 +1205,185 @@ public class MongoDb implements MongoDbAPI {
 	private Future<Message<JsonObject>> sendRequest(final JsonObject payload,
 																									final DeliveryOptions deliveryOptions,
 																									final Handler<Message<JsonObject>> callback) {
-		Future<Message<JsonObject>> future;
-		Handler<AsyncResult<Message<JsonObject>>> handler;
-		if (deliveryOptions == null) {
-            final DeliveryOptions localDO = new DeliveryOptions().setLocalOnly(true);
-			future = eb.request(address, payload, localDO);
-			handler = getAdapterHandler(callback);
-		} else {
-			future = eb.request(address, payload, new DeliveryOptions(deliveryOptions).setLocalOnly(true));
-			handler = getAdapterHandler(callback);
+		final MongoResultCache cache = this.resultCache;
+		final String collection = payload.getString("collection");
+		if (cache != null && collection != null) {
+			final String action = payload.getString("action");
+			if (MongoResultCache.isWrite(action)) {
+				cache.invalidate(collection);
+				return dispatch(payload, deliveryOptions, message -> {
+					// reads sent while the write was running may have cached the previous state
+					cache.invalidate(collection);
+					if (callback != null) {
+						callback.handle(message);
+					}
+				});
+			}
+			if (cache.isCacheable(action, collection)) {
+				final String key = MongoRequestKey.of(payload);
+				final JsonObject cached = cache.get(key, collection);
+				if (cached != null) {
+					final Message<JsonObject> hit = new MongoResultMessage(cached);
+					if (callback != null) {
+						callback.handle(hit);
+					}
+					return Future.succeededFuture(hit);
+				}
+				final long epoch = cache.epoch(collection);
+				return dispatch(payload, key, deliveryOptions, message -> {
+					if (isOk(message.body())) {
+						cache.put(key, collection, epoch, message.body());
+					}
+					if (callback != null) {
+						callback.handle(message);
+					}
+				});
+			}
 		}
+		return dispatch(payload, deliveryOptions, callback);
+	}
+
+	private Future<Message<JsonObject>> dispatch(final JsonObject payload, final DeliveryOptions deliveryOptions,
+			final Handler<Message<JsonObject>> callback) {
+		return dispatch(payload, null, deliveryOptions, callback);
+	}
+
+	private Future<Message<JsonObject>> dispatch(final JsonObject payload, final String key,
+			final DeliveryOptions deliveryOptions, final Handler<Message<JsonObject>> callback) {
+		final MongoReadDeduplicator deduplicator = this.readDeduplicator;
+		final Handler<AsyncResult<Message<JsonObject>>> handler = getAdapterHandler(callback);
+		// lazy requests can get their results in several batches, which cannot be shared
+		if (deduplicator != null && MongoReadDeduplicator.isDeduplicable(payload.getString("action"))
+				&& !payload.containsKey(LazyResults.RAW_RESULTS)) {
+			final String requestKey = key != null ? key : MongoRequestKey.of(payload);
+			final Future<Message<JsonObject>> shared = deduplicator.join(requestKey, callback);
+			if (shared != null) {
+				return shared;
+			}
+			return request(payload, deliveryOptions).onComplete(e -> {
+				// followers copy the reply before the leader callback can modify it
+				deduplicator.complete(requestKey, e);
+				if (handler != null) {
+					handler.handle(e);
+				}
+			});
+		}
+		final Future<Message<JsonObject>> future = request(payload, deliveryOptions);
 		return future.onComplete(e -> {
 			if(handler != null) {
 				handler.handle(e);
 			}
 		});
 	}
+
+	private Future<Message<JsonObject>> request(final JsonObject payload, final DeliveryOptions deliveryOptions) {
+		final long deadline = deadlinePropagation ? MongoDeadline.of(deliveryOptions) : 0L;
+		// parsed once for the deadline, the slow query log and the index advisor
+		final JsonObject command = deadline != 0L || slowQueryLog != null || indexAdvisor != null ?
+				parseCommand(payload) : null;
+		final MongoAdmissionController admission = this.admission;
+		if (admission == null || MongoAdmissionController.isExempt(deliveryOptions)) {
+			return withinDeadline(payload, command, deliveryOptions, deadline);
+		}
+		final RequestPriority lane = RequestPriority.of(deliveryOptions, currentPriority.get());
+		final long sendTimeout = deliveryOptions != null ?
+				deliveryOptions.getSendTimeout() : DeliveryOptions.DEFAULT_TIMEOUT;
+		return admission.submit(payload.getString("collection"), lane, sendTimeout,
+				() -> withinDeadline(payload, command, deliveryOptions, deadline));
+	}
+
+	/**
+	 * @return the command of a command request, null for other requests or invalid commands
+	 */
+	private static JsonObject parseCommand(JsonObject payload) {
+		if (!"command".equals(payload.getString("action")) || !(payload.getValue("command") instanceof String)) {
+			return null;
+		}
+		try {
+			final JsonObject command = new JsonObject(payload.getString("command"));
+			return command.isEmpty() ? null : command;
+		} catch (DecodeException e) {
+			return null;
+		}
+	}
+
+	private Future<Message<JsonObject>> withinDeadline(final JsonObject payload, final JsonObject command,
+			final DeliveryOptions deliveryOptions, final long deadline) {
+		if (deadline == 0L) {
+			return hedge(payload, command, deliveryOptions);
+		}
+		final long remaining = deadline - System.currentTimeMillis();
+		if (remaining <= 0L) {
+			return Future.failedFuture(MongoDeadline.EXCEEDED);
+		}
+		MongoDeadline.apply(payload, command, remaining);
+		final DeliveryOptions bounded = deliveryOptions == null ?
+				new DeliveryOptions() : new DeliveryOptions(deliveryOptions);
+		return hedge(payload, command, bounded.setSendTimeout(remaining));
+	}
+
+	private Future<Message<JsonObject>> hedge(final JsonObject payload, final JsonObject command,
+			final DeliveryOptions deliveryOptions) {
+		final MongoHedgePolicy policy = this.hedgePolicy;
+		if (policy == null || !MongoHedgePolicy.isHedgeable(payload)) {
+			return send(payload, command, deliveryOptions);
+		}
+		// the local codec hands the payload over by reference, the hedge needs its own copy
+		final JsonObject spare = localCodec ? payload.copy() : payload;
+		final AtomicBoolean sent = new AtomicBoolean();
+		return policy.execute(() -> send(sent.getAndSet(true) ? spare : payload, command, deliveryOptions));
+	}
+
+	private Future<Message<JsonObject>> send(final JsonObject payload, final JsonObject command,
+			final DeliveryOptions deliveryOptions) {
+		final MongoDbMetrics metrics = this.metrics;
+		final MongoSlowQueryLog slowQueryLog = this.slowQueryLog;
+		final MongoIndexAdvisor indexAdvisor = this.indexAdvisor;
+		if (metrics == null && slowQueryLog == null && indexAdvisor == null) {
+			return eb.request(address, payload, localDeliveryOptions(deliveryOptions));
+		}
+		final String action = payload.getString("action");
+		final String collection = payload.getString("collection");
+		final boolean measureSizes = metrics != null && metrics.measureSizes();
+		if (metrics != null) {
+			// measured before sending, the local codec hands the payload over to the persistor
+			metrics.requestSent(action, collection, measureSizes ? JsonSizeEstimator.estimate(payload) : -1);
+		}
+		final long start = System.nanoTime();
+		final Future<Message<JsonObject>> future = eb.request(address, payload, localDeliveryOptions(deliveryOptions));
+		return future.onComplete(e -> {
+			final long latency = System.nanoTime() - start;
+			if (slowQueryLog != null) {
+				slowQueryLog.observe(payload, command, latency);
+			}
+			if (indexAdvisor != null) {
+				indexAdvisor.observe(payload, command, latency);
+			}
+			if (metrics == null) {
+				return;
+			}
+			if (e.succeeded()) {
+				final JsonObject body = e.result().body();
+				metrics.requestCompleted(action, collection, latency,
+						measureSizes ? JsonSizeEstimator.estimate(body) : -1,
+						isOk(body) ? MongoDbMetrics.Outcome.OK : MongoDbMetrics.Outcome.ERROR);
+			} else {
+				final boolean timeout = e.cause() instanceof ReplyException &&
+						((ReplyException) e.cause()).failureType() == ReplyFailure.TIMEOUT;
+				metrics.requestCompleted(action, collection, latency, -1,
+						timeout ? MongoDbMetrics.Outcome.TIMEOUT : MongoDbMetrics.Outcome.FAILURE);
+			}
+		});
+	}
+
+	static void handleOnContext(Context context, Handler<Message<JsonObject>> handler, Message<JsonObject> message) {
+		if (handler == null) {
+			return;
+		}
+		if (context == null || context == Vertx.currentContext()) {
+			handler.handle(message);
+		} else {
+			context.runOnContext(v -> handler.handle(message));
+		}
+	}
 }
@@ -29,6 +29,7 @@ import com.mongodb.DBObject;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.Promise;
 import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.eventbus.EventBus;
 import io.vertx.core.eventbus.Message;
@@ -110,6 +111,48 @@ public interface MongoDbAPI {
 
 	public void findOne(String collection, JsonObject matcher, Handler<Message<JsonObject>> callback);
 
+	/**
+	 * Finds documents mapped to instances of type with {@link PojoMapper}.
+	 */
+	default <T> Future<List<T>> findAs(String collection, JsonObject matcher, JsonObject sort, JsonObject keys,
+			Class<T> type) {
+		final Promise<List<T>> promise = Promise.promise();
+		find(collection, matcher, sort, keys, message -> {
+			final JsonObject body = message.body();
+			if (!isOk(body)) {
+				promise.fail(toErrorStr(body));
+				return;
+			}
+			try {
+				promise.complete(PojoMapper.mapTo(body.getJsonArray("results", new JsonArray()), type));
+			} catch (RuntimeException e) {
+				promise.fail(e);
+			}
+		});
+		return promise.future();
+	}
+
+	/**
+	 * Finds a document mapped to an instance of type, as {@link #findAs(String, JsonObject, JsonObject, JsonObject, Class)}.
+	 * @return the instance, or null if no document matches
+	 */
+	default <T> Future<T> findOneAs(String collection, JsonObject matcher, JsonObject keys, Class<T> type) {
+		final Promise<T> promise = Promise.promise();
+		findOne(collection, matcher, keys, message -> {
+			final JsonObject body = message.body();
+			if (!isOk(body)) {
+				promise.fail(toErrorStr(body));
+				return;
+			}
+			try {
+				promise.complete(PojoMapper.mapTo(body.getJsonObject("result"), type));
+			} catch (RuntimeException e) {
+				promise.fail(e);
+			}
+		});
+		return promise.future();
+	}
+
 	public void findAndModify(String collection, JsonObject matcher, JsonObject update, JsonObject sort,
 			JsonObject fields, Handler<Message<JsonObject>> callback);
 
@@ -155,6 +198,10 @@ public interface MongoDbAPI {
 		return "ok".equals(body.getString("status"));
 	}
 
+	static String toErrorStr(JsonObject body) {
+		return body.getString("error", body.getString("message", "query helper error"));
+	}
+
 	public void aggregateBatched(String collection, JsonObject command, int maxBatch, final Handler<Message<JsonObject>> handler);
 
 	public void command(String command);
@@ -0,0 +1,42 @@
+package fr.wseduc.mongodb;
+
+/**
+ * Instrumentation of the requests sent to the persistor. Implementations are called on
+ * the event loop for every request and must not block.
+ */
+public interface MongoDbMetrics {
+
+	enum Outcome {
+		/** reply with status ok */
+		OK,
+		/** reply with status error */
+		ERROR,
+		/** no reply before the delivery timeout */
+		TIMEOUT,
+		/** request not delivered, or failed by the persistor */
+		FAILURE
+	}
+
+	/**
+	 * Called when a request is sent.
+	 * @param action the persistor action
+	 * @param collection the collection, null for actions without collection
+	 * @param requestBytes the estimated request size, -1 if sizes are not measured
+	 */
+	void requestSent(String action, String collection, int requestBytes);
+
+	/**
+	 * Called when a request completes.
+	 * @param latencyNanos the time between the request and its completion
+	 * @param replyBytes the estimated reply size, -1 if sizes are not measured or without reply
+	 */
+	void requestCompleted(String action, String collection, long latencyNanos, int replyBytes, Outcome outcome);
+
+	/**
+	 * @return false to skip the estimation of request and reply sizes
+	 */
+	default boolean measureSizes() {
+		return true;
+	}
+
+}
@@ -0,0 +1,72 @@
+package fr.wseduc.mongodb;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Propagates the deadline of a request, given by its delivery options timeout, to the server
+ * as a time limit, so that the server stops working on requests their caller stopped waiting
+ * for. The remaining time is measured when the request is sent, after any admission queueing.
+ */
+final class MongoDeadline {
+
+	static final String EXCEEDED = "mongodb.deadline.exceeded";
+
+	private static final Set<String> ACTIONS = new HashSet<>(Arrays.asList(
+			"find", "findone", "count", "distinct", "aggregate"));
+	private static final Set<String> COMMANDS = new HashSet<>(Arrays.asList(
+			"find", "aggregate", "count", "distinct"));
+	private static final String MAX_TIME_MS = "max_time_ms";
+
+	private MongoDeadline() {
+	}
+
+	/**
+	 * @return the instant in milliseconds after which the caller gives up waiting
+	 */
+	static long of(DeliveryOptions deliveryOptions) {
+		final long timeout = deliveryOptions != null ?
+				deliveryOptions.getSendTimeout() : DeliveryOptions.DEFAULT_TIMEOUT;
+		return System.currentTimeMillis() + timeout;
+	}
+
+	/**
+	 * Sets the time limit of the payload to remainingMillis, unless it already has a lower one.
+	 * @param command the parsed command of a command request, null for other requests
+	 */
+	static void apply(JsonObject payload, JsonObject command, long remainingMillis) {
+		final String action = payload.getString("action");
+		if (ACTIONS.contains(action)) {
+			final Long current = payload.getLong(MAX_TIME_MS);
+			if (current == null || current <= 0L || current > remainingMillis) {
+				payload.put(MAX_TIME_MS, remainingMillis);
+			}
+		} else if (command != null && applyToCommand(command, remainingMillis)) {
+			payload.put("command", command.encode());
+		}
+	}
+
+	/**
+	 * Sets maxTimeMS on command. getMore is not limited, its maxTimeMS is the await time of
+	 * tailable cursors.
+	 * @return true if the command was changed
+	 */
+	private static boolean applyToCommand(JsonObject command, long remainingMillis) {
+		final Map.Entry<String, Object> name = command.iterator().hasNext() ? command.iterator().next() : null;
+		if (name == null || !COMMANDS.contains(name.getKey())) {
+			return false;
+		}
+		final Long current = command.getValue("maxTimeMS") instanceof Number ? command.getLong("maxTimeMS") : null;
+		if (current != null && current > 0L && current <= remainingMillis) {
+			return false;
+		}
+		command.put("maxTimeMS", remainingMillis);
+		return true;
+	}
+
+}
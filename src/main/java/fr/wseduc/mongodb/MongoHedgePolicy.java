@@ -0,0 +1,143 @@
+package fr.wseduc.mongodb;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Hedged reads : when a read sent to a non primary member has not answered after the given
+ * percentile of the recent read latencies, the same read is sent again and the first
+ * successful reply wins. Each read earns budgetRatio hedge token and each hedge spends one,
+ * so at most about budgetRatio of the reads are duplicated.
+ */
+class MongoHedgePolicy {
+
+	private static final Set<String> ACTIONS = new HashSet<>(Arrays.asList("find", "findone", "count"));
+	private static final int WINDOW = 256;
+	private static final int REFRESH_EVERY = 32;
+	private static final double MAX_TOKENS = 10.0;
+
+	private final Vertx vertx;
+	private final double percentile;
+	private final long minDelayMillis;
+	private final double budgetRatio;
+	private final long[] latencies = new long[WINDOW];
+	private int recorded;
+	private long thresholdMillis;
+	private double tokens;
+	private long hedges;
+	private long hedgeWins;
+
+	MongoHedgePolicy(Vertx vertx, double percentile, long minDelayMillis, double budgetRatio) {
+		this.vertx = vertx;
+		this.percentile = Math.min(1.0, Math.max(0.0, percentile));
+		this.minDelayMillis = Math.max(1L, minDelayMillis);
+		this.budgetRatio = Math.max(0.0, budgetRatio);
+		this.thresholdMillis = this.minDelayMillis;
+	}
+
+	static boolean isHedgeable(JsonObject payload) {
+		if (!ACTIONS.contains(payload.getString("action"))) {
+			return false;
+		}
+		final String readPreference = payload.getString("read_preference");
+		return readPreference != null && !"primary".equalsIgnoreCase(readPreference);
+	}
+
+	Future<Message<JsonObject>> execute(Supplier<Future<Message<JsonObject>>> send) {
+		final long delay;
+		synchronized (this) {
+			tokens = Math.min(MAX_TOKENS, tokens + budgetRatio);
+			delay = thresholdMillis;
+		}
+		final Race race = new Race();
+		race.attempt(send, false);
+		race.timerId = vertx.setTimer(delay, id -> {
+			if (!race.result.future().isComplete() && acquire()) {
+				race.attempt(send, true);
+			}
+		});
+		return race.result.future();
+	}
+
+	synchronized JsonObject stats() {
+		return new JsonObject()
+				.put("thresholdMillis", thresholdMillis)
+				.put("hedges", hedges)
+				.put("hedgeWins", hedgeWins);
+	}
+
+	private synchronized boolean acquire() {
+		if (tokens < 1.0) {
+			return false;
+		}
+		tokens -= 1.0;
+		hedges++;
+		return true;
+	}
+
+	private synchronized void record(long latencyMillis) {
+		latencies[recorded % WINDOW] = latencyMillis;
+		recorded++;
+		if (recorded % REFRESH_EVERY == 0) {
+			final long[] window = Arrays.copyOf(latencies, Math.min(recorded, WINDOW));
+			Arrays.sort(window);
+			final int index = (int) Math.min(window.length - 1, Math.ceil(percentile * window.length) - 1);
+			thresholdMillis = Math.max(minDelayMillis, window[Math.max(0, index)]);
+		}
+	}
+
+	private synchronized void hedgeWon() {
+		hedgeWins++;
+	}
+
+	private class Race {
+		private final Promise<Message<JsonObject>> result = Promise.promise();
+		private int pending;
+		private long timerId = -1L;
+
+		private void attempt(Supplier<Future<Message<JsonObject>>> send, boolean hedge) {
+			synchronized (this) {
+				pending++;
+			}
+			final long start = System.currentTimeMillis();
+			Future<Message<JsonObject>> future;
+			try {
+				future = send.get();
+			} catch (RuntimeException e) {
+				future = Future.failedFuture(e);
+			}
+			future.onComplete(ar -> onReply(ar, start, hedge));
+		}
+
+		private void onReply(AsyncResult<Message<JsonObject>> ar, long start, boolean hedge) {
+			final boolean ok = ar.succeeded() && MongoDb.isOk(ar.result().body());
+			if (ok) {
+				record(System.currentTimeMillis() - start);
+			}
+			final boolean last;
+			synchronized (this) {
+				last = --pending == 0;
+			}
+			if (ok || last) {
+				// the loser reply, if any, is ignored
+				final boolean won = ar.succeeded() ? result.tryComplete(ar.result()) : result.tryFail(ar.cause());
+				if (won && ok && hedge) {
+					hedgeWon();
+				}
+				if (timerId >= 0L) {
+					vertx.cancelTimer(timerId);
+				}
+			}
+		}
+	}
+
+}
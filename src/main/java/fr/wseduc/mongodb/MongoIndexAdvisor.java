@@ -0,0 +1,397 @@
+package fr.wseduc.mongodb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Suggests indexes from the queries sent to the persistor. Each find, findone, count,
+ * find_and_modify and aggregate request, sent directly or as a command, is reduced to its
+ * shape : the fields of its matcher compared for equality, its sort, and the fields of its
+ * matcher compared with ranges. For aggregations, the shape is taken from the leading $match
+ * and $sort stages. Shapes not served by an existing index get a suggested index following
+ * the equality, sort, range rule, ranked by the total latency of their requests.
+ */
+public class MongoIndexAdvisor {
+
+	private static final Set<String> ACTIONS = new HashSet<>(Arrays.asList(
+			"find", "findone", "count", "find_and_modify", "aggregate", "command"));
+	private static final Set<String> EQUALITY_OPERATORS = new HashSet<>(Arrays.asList("$eq", "$in", "$elemMatch"));
+	private static final String ID_INDEX = "_id_";
+
+	private final MongoDb mongo;
+	private final int maxShapes;
+	private final Map<String, Shape> shapes = new HashMap<>();
+	private long dropped;
+
+	MongoIndexAdvisor(MongoDb mongo, int maxShapes) {
+		this.mongo = mongo;
+		this.maxShapes = Math.max(1, maxShapes);
+	}
+
+	/**
+	 * @return the number of requests not observed because maxShapes shapes were already known
+	 */
+	public synchronized long getDroppedRequests() {
+		return dropped;
+	}
+
+	/**
+	 * @return the observed shapes with their request count and latency
+	 */
+	public synchronized JsonArray shapes() {
+		final JsonArray dump = new JsonArray();
+		for (Shape shape : shapes.values()) {
+			dump.add(shape.toJson());
+		}
+		return dump;
+	}
+
+	public synchronized void clear() {
+		shapes.clear();
+		dropped = 0L;
+	}
+
+	/**
+	 * Fetches the indexes of the collection with listIndexes and compares them with the
+	 * observed shapes, as {@link #advise(String, JsonArray)}.
+	 */
+	public Future<JsonObject> advise(String collection) {
+		final Promise<JsonObject> promise = Promise.promise();
+		mongo.command(new JsonObject().put("listIndexes", collection).encode(), message -> {
+			final JsonObject body = message.body();
+			if (!MongoDb.isOk(body)) {
+				promise.fail(MongoDb.toErrorStr(body));
+				return;
+			}
+			final JsonArray indexes = body.getJsonObject("result", new JsonObject())
+					.getJsonObject("cursor", new JsonObject()).getJsonArray("firstBatch", new JsonArray());
+			promise.complete(advise(collection, indexes));
+		});
+		return promise.future();
+	}
+
+	/**
+	 * @param indexes the index descriptions of the collection, with their name and key
+	 * @return the suggested indexes, ranked by the total latency of the requests they would
+	 * serve, and the indexes whose leading field is used by none of the observed shapes
+	 */
+	public JsonObject advise(String collection, JsonArray indexes) {
+		final List<Shape> observed = new ArrayList<>();
+		synchronized (this) {
+			for (Shape shape : shapes.values()) {
+				if (shape.collection.equals(collection)) {
+					observed.add(shape.snapshot());
+				}
+			}
+		}
+		final Map<String, JsonObject> suggestions = new LinkedHashMap<>();
+		final Set<String> usedFields = new HashSet<>();
+		for (Shape shape : observed) {
+			usedFields.addAll(shape.equality);
+			usedFields.addAll(shape.sort.fieldNames());
+			usedFields.addAll(shape.range);
+			final JsonObject key = shape.suggestedKey();
+			if (key.isEmpty() || isServed(shape, indexes)) {
+				continue;
+			}
+			final JsonObject suggestion = suggestions.computeIfAbsent(key.encode(), k -> new JsonObject()
+					.put("key", key).put("count", 0L).put("totalLatencyMillis", 0L).put("shapes", new JsonArray()));
+			suggestion.put("count", suggestion.getLong("count") + shape.count);
+			suggestion.put("totalLatencyMillis", suggestion.getLong("totalLatencyMillis") +
+					TimeUnit.NANOSECONDS.toMillis(shape.totalLatencyNanos));
+			suggestion.getJsonArray("shapes").add(shape.toJson());
+		}
+		final List<JsonObject> ranked = new ArrayList<>(suggestions.values());
+		ranked.sort((a, b) -> {
+			final int byLatency = Long.compare(b.getLong("totalLatencyMillis"), a.getLong("totalLatencyMillis"));
+			return byLatency != 0 ? byLatency : Long.compare(b.getLong("count"), a.getLong("count"));
+		});
+		final JsonArray unused = new JsonArray();
+		for (Object index : indexes) {
+			if (!(index instanceof JsonObject)) {
+				continue;
+			}
+			final JsonObject description = (JsonObject) index;
+			final JsonObject key = description.getJsonObject("key", new JsonObject());
+			if (ID_INDEX.equals(description.getString("name")) || key.isEmpty()) {
+				continue;
+			}
+			if (!usedFields.contains(key.fieldNames().iterator().next())) {
+				unused.add(new JsonObject().put("name", description.getString("name")).put("key", key));
+			}
+		}
+		return new JsonObject()
+				.put("collection", collection)
+				.put("suggestions", new JsonArray(new ArrayList<>(ranked)))
+				.put("unusedIndexes", unused);
+	}
+
+	/**
+	 * @param command the parsed command of a command request, null for other requests
+	 */
+	void observe(JsonObject payload, JsonObject command, long latencyNanos) {
+		final String action = payload.getString("action");
+		if (!ACTIONS.contains(action)) {
+			return;
+		}
+		final Shape shape = "command".equals(action) ? fromCommand(command) : fromPayload(action, payload);
+		if (shape == null) {
+			return;
+		}
+		final String fingerprint = shape.fingerprint();
+		synchronized (this) {
+			Shape observed = shapes.get(fingerprint);
+			if (observed == null) {
+				if (shapes.size() >= maxShapes) {
+					dropped++;
+					return;
+				}
+				observed = shape;
+				shapes.put(fingerprint, observed);
+			}
+			observed.count++;
+			observed.totalLatencyNanos += latencyNanos;
+		}
+	}
+
+	private static Shape fromPayload(String action, JsonObject payload) {
+		final String collection = payload.getString("collection");
+		if (collection == null) {
+			return null;
+		}
+		if ("aggregate".equals(action)) {
+			return fromPipeline(collection, payload.getJsonArray("pipelines"));
+		}
+		return shape(collection, payload.getJsonObject("matcher"),
+				"count".equals(action) ? null : payload.getJsonObject("sort"));
+	}
+
+	private static Shape fromCommand(JsonObject json) {
+		if (json == null || json.isEmpty()) {
+			return null;
+		}
+		final String name = json.fieldNames().iterator().next();
+		if (!(json.getValue(name) instanceof String)) {
+			return null;
+		}
+		final String collection = json.getString(name);
+		switch (name) {
+			case "find":
+				return shape(collection, json.getJsonObject("filter"), json.getJsonObject("sort"));
+			case "count":
+				return shape(collection, json.getJsonObject("query"), null);
+			case "findAndModify":
+				return shape(collection, json.getJsonObject("query"), json.getJsonObject("sort"));
+			case "aggregate":
+				return json.getValue("pipeline") instanceof JsonArray ?
+						fromPipeline(collection, json.getJsonArray("pipeline")) : null;
+			default:
+				return null;
+		}
+	}
+
+	private static Shape fromPipeline(String collection, JsonArray pipeline) {
+		if (pipeline == null || pipeline.isEmpty() || !(pipeline.getValue(0) instanceof JsonObject)) {
+			return null;
+		}
+		JsonObject matcher = null;
+		JsonObject sort = null;
+		int i = 0;
+		JsonObject stage = pipeline.getJsonObject(i);
+		if (stage.getValue("$match") instanceof JsonObject) {
+			matcher = stage.getJsonObject("$match");
+			stage = ++i < pipeline.size() && pipeline.getValue(i) instanceof JsonObject ? pipeline.getJsonObject(i) : null;
+		}
+		if (stage != null && stage.getValue("$sort") instanceof JsonObject) {
+			sort = stage.getJsonObject("$sort");
+		}
+		return matcher == null && sort == null ? null : shape(collection, matcher, sort);
+	}
+
+	private static Shape shape(String collection, JsonObject matcher, JsonObject sort) {
+		final Shape shape = new Shape(collection);
+		if (matcher != null && !collect(matcher, shape)) {
+			return null;
+		}
+		if (sort != null) {
+			for (Map.Entry<String, Object> key : sort) {
+				shape.sort.put(key.getKey(), key.getValue() instanceof Number &&
+						((Number) key.getValue()).intValue() < 0 ? -1 : 1);
+			}
+		}
+		shape.equality.removeAll(shape.sort.fieldNames());
+		shape.range.removeAll(shape.equality);
+		shape.range.removeAll(shape.sort.fieldNames());
+		return shape.isEmpty() ? null : shape;
+	}
+
+	/**
+	 * @return false if the matcher can not be served by a single index, as with $or
+	 */
+	private static boolean collect(JsonObject matcher, Shape shape) {
+		for (Map.Entry<String, Object> entry : matcher) {
+			final String field = entry.getKey();
+			final Object value = entry.getValue();
+			if ("$and".equals(field)) {
+				if (!(value instanceof JsonArray)) {
+					return false;
+				}
+				for (Object clause : (JsonArray) value) {
+					if (!(clause instanceof JsonObject) || !collect((JsonObject) clause, shape)) {
+						return false;
+					}
+				}
+			} else if (field.startsWith("$")) {
+				if (!"$comment".equals(field)) {
+					return false;
+				}
+			} else if (isEquality(value)) {
+				shape.equality.add(field);
+			} else {
+				shape.range.add(field);
+			}
+		}
+		return true;
+	}
+
+	private static boolean isEquality(Object value) {
+		if (!(value instanceof JsonObject)) {
+			return true;
+		}
+		final JsonObject operators = (JsonObject) value;
+		if (operators.containsKey("$regex")) {
+			return false;
+		}
+		if (MongoQueryShape.isLiteral(operators) || operators.isEmpty() || !operators.fieldNames().iterator().next().startsWith("$")) {
+			// embedded document
+			return true;
+		}
+		for (String operator : operators.fieldNames()) {
+			if (!EQUALITY_OPERATORS.contains(operator)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * An index serves a shape if its key starts with the equality fields in any order,
+	 * followed by the sort fields in order, in the sort direction or in the reverse one,
+	 * followed by the range fields in any order.
+	 */
+	private static boolean isServed(Shape shape, JsonArray indexes) {
+		for (Object index : indexes) {
+			if (index instanceof JsonObject && serves(((JsonObject) index).getJsonObject("key"), shape)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean serves(JsonObject key, Shape shape) {
+		if (key == null) {
+			return false;
+		}
+		final List<Map.Entry<String, Object>> fields = new ArrayList<>();
+		key.forEach(fields::add);
+		final int sortEnd = shape.equality.size() + shape.sort.size();
+		if (fields.size() < sortEnd + shape.range.size()) {
+			return false;
+		}
+		final Set<String> equality = new HashSet<>();
+		for (int i = 0; i < shape.equality.size(); i++) {
+			equality.add(fields.get(i).getKey());
+		}
+		if (!equality.equals(shape.equality)) {
+			return false;
+		}
+		int direction = 0;
+		int i = shape.equality.size();
+		for (Map.Entry<String, Object> sortKey : shape.sort) {
+			final Map.Entry<String, Object> field = fields.get(i++);
+			if (!field.getKey().equals(sortKey.getKey()) || !(field.getValue() instanceof Number)) {
+				return false;
+			}
+			final int same = Integer.signum(((Number) field.getValue()).intValue()) ==
+					((Number) sortKey.getValue()).intValue() ? 1 : -1;
+			if (direction != 0 && direction != same) {
+				return false;
+			}
+			direction = same;
+		}
+		final Set<String> range = new HashSet<>();
+		for (int j = sortEnd; j < sortEnd + shape.range.size(); j++) {
+			range.add(fields.get(j).getKey());
+		}
+		return range.equals(shape.range);
+	}
+
+	private static class Shape {
+		private final String collection;
+		private final Set<String> equality = new TreeSet<>();
+		private final JsonObject sort = new JsonObject();
+		private final Set<String> range = new TreeSet<>();
+		private long count;
+		private long totalLatencyNanos;
+
+		private Shape(String collection) {
+			this.collection = collection;
+		}
+
+		private boolean isEmpty() {
+			return equality.isEmpty() && sort.isEmpty() && range.isEmpty();
+		}
+
+		private String fingerprint() {
+			return collection + "|" + equality + "|" + sort.encode() + "|" + range;
+		}
+
+		private JsonObject suggestedKey() {
+			final JsonObject key = new JsonObject();
+			for (String field : equality) {
+				key.put(field, 1);
+			}
+			for (Map.Entry<String, Object> sortKey : sort) {
+				key.put(sortKey.getKey(), sortKey.getValue());
+			}
+			for (String field : range) {
+				key.put(field, 1);
+			}
+			return key;
+		}
+
+		private Shape snapshot() {
+			final Shape copy = new Shape(collection);
+			copy.equality.addAll(equality);
+			copy.sort.mergeIn(sort);
+			copy.range.addAll(range);
+			copy.count = count;
+			copy.totalLatencyNanos = totalLatencyNanos;
+			return copy;
+		}
+
+		private JsonObject toJson() {
+			return new JsonObject()
+					.put("collection", collection)
+					.put("equality", new JsonArray(new ArrayList<>(equality)))
+					.put("sort", sort.copy())
+					.put("range", new JsonArray(new ArrayList<>(range)))
+					.put("count", count)
+					.put("avgLatencyMillis", count == 0L ? 0L : TimeUnit.NANOSECONDS.toMillis(totalLatencyNanos / count));
+		}
+	}
+
+}
@@ -0,0 +1,266 @@
+package fr.wseduc.mongodb;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
+
+/**
+ * Scan of a collection split into _id ranges read concurrently. Split points are taken from
+ * a random sample of the collection identifiers, so partitions hold about the same number of
+ * documents. The _id values of the collection must all have the same type, since range
+ * predicates only match values of the type of their bound : if the sample holds several
+ * types, the collection is scanned as a single partition.
+ */
+public class MongoParallelScan {
+
+	private static final int SAMPLES_PER_PARTITION = 32;
+	private static final int MAX_SAMPLES = 10000;
+
+	private final MongoDb mongo;
+	private final String collection;
+	private final JsonObject matcher;
+	private final JsonObject keys;
+	private final int partitions;
+	private final int parallelism;
+	private final int batchSize;
+
+	MongoParallelScan(MongoDb mongo, String collection, JsonObject matcher, JsonObject keys, int partitions,
+			int parallelism, int batchSize) {
+		this.mongo = mongo;
+		this.collection = collection;
+		this.matcher = matcher;
+		this.keys = keys;
+		this.partitions = Math.max(1, partitions);
+		this.parallelism = Math.max(1, parallelism);
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * @return the matchers of the partitions, in _id order
+	 */
+	public Future<List<JsonObject>> partitions() {
+		if (partitions == 1) {
+			return Future.succeededFuture(rangeMatchers(new JsonArray()));
+		}
+		final int samples = Math.min(MAX_SAMPLES, partitions * SAMPLES_PER_PARTITION);
+		final JsonArray pipeline = new JsonArray()
+				.add(new JsonObject().put("$sample", new JsonObject().put("size", samples)))
+				.add(new JsonObject().put("$project", new JsonObject().put("_id", 1)))
+				.add(new JsonObject().put("$sort", new JsonObject().put("_id", 1)));
+		return mongo.aggregate(collection, pipeline).map(this::splitPoints).map(this::rangeMatchers);
+	}
+
+	/**
+	 * @return one stream per partition, the queries are sent when their handlers are set
+	 */
+	public Future<List<MongoCursorStream>> streams() {
+		return partitions().map(matchers -> {
+			final List<MongoCursorStream> streams = new ArrayList<>(matchers.size());
+			for (JsonObject partition : matchers) {
+				streams.add(mongo.findStream(collection, partition, null, keys, batchSize));
+			}
+			return streams;
+		});
+	}
+
+	/**
+	 * @return a stream of the documents of every partition, reading at most parallelism
+	 * partitions at a time. Documents of concurrent partitions are interleaved.
+	 */
+	public ReadStream<JsonObject> stream() {
+		return new MergedStream();
+	}
+
+	private JsonArray splitPoints(JsonArray sample) {
+		final JsonArray ids = new JsonArray();
+		Class<?> type = null;
+		for (Object document : sample) {
+			final Object id = document instanceof JsonObject ? ((JsonObject) document).getValue("_id") : null;
+			if (id == null || (type != null && type != id.getClass())) {
+				// unknown or mixed identifier types
+				return new JsonArray();
+			}
+			type = id.getClass();
+			ids.add(id);
+		}
+		final JsonArray points = new JsonArray();
+		for (int i = 1; i < partitions && !ids.isEmpty(); i++) {
+			final Object point = ids.getValue(i * ids.size() / partitions);
+			if (points.isEmpty() || !point.equals(points.getValue(points.size() - 1))) {
+				points.add(point);
+			}
+		}
+		return points;
+	}
+
+	private List<JsonObject> rangeMatchers(JsonArray points) {
+		final List<JsonObject> matchers = new ArrayList<>(points.size() + 1);
+		for (int i = 0; i <= points.size(); i++) {
+			final JsonObject range = new JsonObject();
+			if (i > 0) {
+				range.put("$gte", points.getValue(i - 1));
+			}
+			if (i < points.size()) {
+				range.put("$lt", points.getValue(i));
+			}
+			if (range.isEmpty()) {
+				matchers.add(matcher);
+			} else if (matcher == null || matcher.isEmpty()) {
+				matchers.add(new JsonObject().put("_id", range));
+			} else {
+				matchers.add(new JsonObject().put("$and", new JsonArray()
+						.add(matcher).add(new JsonObject().put("_id", range))));
+			}
+		}
+		return matchers;
+	}
+
+	/**
+	 * Merges the partition streams. Meant to be used from a single context.
+	 */
+	private class MergedStream implements ReadStream<JsonObject> {
+
+		private final ArrayDeque<MongoCursorStream> waiting = new ArrayDeque<>();
+		private final List<MongoCursorStream> active = new ArrayList<>();
+		private Handler<JsonObject> handler;
+		private Handler<Void> endHandler;
+		private Handler<Throwable> exceptionHandler;
+		private long demand = Long.MAX_VALUE;
+		private boolean started;
+		private boolean done;
+
+		@Override
+		public MergedStream exceptionHandler(Handler<Throwable> handler) {
+			this.exceptionHandler = handler;
+			return this;
+		}
+
+		@Override
+		public MergedStream handler(Handler<JsonObject> handler) {
+			this.handler = handler;
+			if (handler != null && !started) {
+				started = true;
+				streams().onComplete(ar -> {
+					if (ar.failed()) {
+						fail(ar.cause());
+					} else {
+						waiting.addAll(ar.result());
+						startPartitions();
+					}
+				});
+			}
+			return this;
+		}
+
+		@Override
+		public MergedStream pause() {
+			demand = 0L;
+			for (MongoCursorStream stream : active) {
+				stream.pause();
+			}
+			return this;
+		}
+
+		@Override
+		public MergedStream resume() {
+			return fetch(Long.MAX_VALUE);
+		}
+
+		@Override
+		public MergedStream fetch(long amount) {
+			demand += amount;
+			if (demand < 0L) {
+				demand = Long.MAX_VALUE;
+			}
+			for (MongoCursorStream stream : new ArrayList<>(active)) {
+				// a partition can use up the demand and pause the others while they are resumed
+				if (demand <= 0L) {
+					break;
+				}
+				resume(stream);
+			}
+			return this;
+		}
+
+		@Override
+		public MergedStream endHandler(Handler<Void> endHandler) {
+			this.endHandler = endHandler;
+			return this;
+		}
+
+		private void startPartitions() {
+			while (!done && active.size() < parallelism && !waiting.isEmpty()) {
+				final MongoCursorStream stream = waiting.poll();
+				active.add(stream);
+				stream.exceptionHandler(this::fail);
+				stream.endHandler(v -> {
+					active.remove(stream);
+					startPartitions();
+				});
+				stream.pause();
+				stream.handler(this::forward);
+				if (demand > 0L) {
+					resume(stream);
+				}
+			}
+			if (!done && active.isEmpty() && waiting.isEmpty()) {
+				done = true;
+				if (endHandler != null) {
+					endHandler.handle(null);
+				}
+			}
+		}
+
+		/**
+		 * Lets a partition read at most the remaining demand, the merged stream pauses every
+		 * partition once it is used up.
+		 */
+		private void resume(MongoCursorStream stream) {
+			if (demand == Long.MAX_VALUE) {
+				stream.resume();
+			} else {
+				stream.pause();
+				stream.fetch(demand);
+			}
+		}
+
+		private void forward(JsonObject document) {
+			if (done) {
+				return;
+			}
+			if (demand != Long.MAX_VALUE && demand > 0L) {
+				demand--;
+			}
+			final Handler<JsonObject> h = handler;
+			if (h != null) {
+				h.handle(document);
+			}
+			if (demand == 0L) {
+				pause();
+			}
+		}
+
+		private void fail(Throwable cause) {
+			if (done) {
+				return;
+			}
+			done = true;
+			for (MongoCursorStream stream : active) {
+				stream.close();
+			}
+			active.clear();
+			waiting.clear();
+			if (exceptionHandler != null) {
+				exceptionHandler.handle(cause);
+			}
+		}
+
+	}
+
+}
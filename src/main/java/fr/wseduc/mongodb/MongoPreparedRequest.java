@@ -0,0 +1,176 @@
+package fr.wseduc.mongodb;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Request skeleton built once and bound to parameters for each call. The matcher may contain
+ * placeholders created with {@link #param(int)}. Binding only rebuilds the objects leading
+ * to a placeholder, the other parts of the request are shared by all the bound requests and
+ * must not be modified.
+ */
+public class MongoPreparedRequest {
+
+	private static final String PARAM = "$param";
+
+	private final Map<String, Object> skeleton;
+	private final String templateField;
+	private final Object template;
+	private final int parameters;
+
+	MongoPreparedRequest(JsonObject request, String templateField) {
+		this.templateField = templateField;
+		this.skeleton = new LinkedHashMap<>(request.getMap());
+		final Object value = skeleton.remove(templateField);
+		final int[] max = {-1};
+		this.template = compile(value, max);
+		this.parameters = max[0] + 1;
+	}
+
+	/**
+	 * @param index the position of the value in the parameters given to {@link #bind(Object...)}
+	 * @return a placeholder to use as a value in a matcher
+	 */
+	public static JsonObject param(int index) {
+		if (index < 0) {
+			throw new IllegalArgumentException("Invalid parameter index : " + index);
+		}
+		return new JsonObject().put(PARAM, index);
+	}
+
+	public int getParameterCount() {
+		return parameters;
+	}
+
+	/**
+	 * @return the request payload, with placeholders replaced by params
+	 * @throws IllegalArgumentException if a parameter is missing or is not a JSON value
+	 */
+	public JsonObject bind(Object... params) {
+		if (params.length < parameters) {
+			throw new IllegalArgumentException("Expected " + parameters + " parameters, got " + params.length);
+		}
+		for (int i = 0; i < parameters; i++) {
+			if (!isJsonValue(params[i])) {
+				throw new IllegalArgumentException("Invalid type for parameter " + i + " : " +
+						params[i].getClass().getName());
+			}
+		}
+		final Map<String, Object> request = new LinkedHashMap<>(skeleton.size() + 1, 1f);
+		request.putAll(skeleton);
+		request.put(templateField, template instanceof Node ? ((Node) template).bind(params) : template);
+		return new JsonObject(request);
+	}
+
+	private static Object compile(Object value, int[] max) {
+		if (value instanceof Map) {
+			value = new JsonObject(asMap(value));
+		} else if (value instanceof List) {
+			value = new JsonArray((List<?>) value);
+		}
+		if (value instanceof JsonObject) {
+			final JsonObject object = (JsonObject) value;
+			if (object.size() == 1 && object.getValue(PARAM) instanceof Integer) {
+				final int index = object.getInteger(PARAM);
+				max[0] = Math.max(max[0], index);
+				return new ParamNode(index);
+			}
+			final String[] keys = new String[object.size()];
+			final Object[] values = new Object[keys.length];
+			boolean dynamic = false;
+			int i = 0;
+			for (Map.Entry<String, Object> entry : object.getMap().entrySet()) {
+				keys[i] = entry.getKey();
+				values[i] = compile(entry.getValue(), max);
+				dynamic |= values[i] instanceof Node;
+				i++;
+			}
+			return dynamic ? new ObjectNode(keys, values) : value;
+		}
+		if (value instanceof JsonArray) {
+			final List<Object> values = new ArrayList<>();
+			boolean dynamic = false;
+			for (Object item : ((JsonArray) value).getList()) {
+				final Object compiled = compile(item, max);
+				dynamic |= compiled instanceof Node;
+				values.add(compiled);
+			}
+			return dynamic ? new ArrayNode(values.toArray()) : value;
+		}
+		return value;
+	}
+
+	private static boolean isJsonValue(Object value) {
+		return value == null || value instanceof String || value instanceof Number || value instanceof Boolean ||
+				value instanceof JsonObject || value instanceof JsonArray || value instanceof Map ||
+				value instanceof List || value instanceof byte[] || value instanceof Instant ||
+				value instanceof Buffer || value instanceof Enum;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> asMap(Object value) {
+		return (Map<String, Object>) value;
+	}
+
+	private interface Node {
+		Object bind(Object[] params);
+	}
+
+	private static class ParamNode implements Node {
+		private final int index;
+
+		private ParamNode(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public Object bind(Object[] params) {
+			return params[index];
+		}
+	}
+
+	private static class ObjectNode implements Node {
+		private final String[] keys;
+		private final Object[] values;
+
+		private ObjectNode(String[] keys, Object[] values) {
+			this.keys = keys;
+			this.values = values;
+		}
+
+		@Override
+		public Object bind(Object[] params) {
+			final Map<String, Object> map = new LinkedHashMap<>(keys.length + 1, 1f);
+			for (int i = 0; i < keys.length; i++) {
+				final Object value = values[i];
+				map.put(keys[i], value instanceof Node ? ((Node) value).bind(params) : value);
+			}
+			return new JsonObject(map);
+		}
+	}
+
+	private static class ArrayNode implements Node {
+		private final Object[] values;
+
+		private ArrayNode(Object[] values) {
+			this.values = values;
+		}
+
+		@Override
+		public Object bind(Object[] params) {
+			final List<Object> list = new ArrayList<>(values.length);
+			for (Object value : values) {
+				list.add(value instanceof Node ? ((Node) value).bind(params) : value);
+			}
+			return new JsonArray(list);
+		}
+	}
+
+}
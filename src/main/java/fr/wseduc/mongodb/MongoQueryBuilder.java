@@ -18,16 +18,11 @@ package fr.wseduc.mongodb;
 
 import io.vertx.core.json.JsonObject;
 import org.bson.conversions.Bson;
-import org.bson.json.JsonMode;
-import org.bson.json.JsonWriterSettings;
 
 public class MongoQueryBuilder {
 
-  private static final JsonWriterSettings jws = JsonWriterSettings.builder()
-    .outputMode(JsonMode.STRICT)
-    .build();
 	public static JsonObject build(Bson queryBuilder) {
-			return new JsonObject(queryBuilder.toBsonDocument().toJson(jws));
+			return BsonJsonConverter.toJsonObject(queryBuilder.toBsonDocument());
 	}
 
 }
@@ -0,0 +1,68 @@
+package fr.wseduc.mongodb;
+
+import java.util.Map;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Shape of queries : the structure of matchers, pipelines and updates, with their literal
+ * values replaced by "?".
+ */
+final class MongoQueryShape {
+
+	static final String LITERAL = "?";
+
+	private MongoQueryShape() {
+	}
+
+	/**
+	 * @return a copy of value with every literal replaced by "?". Extended JSON values,
+	 * as {"$date": ...}, are literals.
+	 */
+	static Object redact(Object value) {
+		if (value instanceof JsonObject) {
+			final JsonObject object = (JsonObject) value;
+			if (isLiteral(object)) {
+				return LITERAL;
+			}
+			final JsonObject redacted = new JsonObject();
+			for (Map.Entry<String, Object> entry : object) {
+				redacted.put(entry.getKey(), redact(entry.getValue()));
+			}
+			return redacted;
+		} else if (value instanceof JsonArray) {
+			final JsonArray redacted = new JsonArray();
+			for (Object item : (JsonArray) value) {
+				redacted.add(redact(item));
+			}
+			return redacted;
+		} else if (value == null) {
+			return null;
+		}
+		return LITERAL;
+	}
+
+	/**
+	 * @return true if object is an extended JSON value, as {"$date": ...}
+	 */
+	static boolean isLiteral(JsonObject object) {
+		if (object.isEmpty() || object.size() > 2) {
+			return false;
+		}
+		final String key = object.fieldNames().iterator().next();
+		switch (key) {
+			case "$date":
+			case "$oid":
+			case "$numberLong":
+			case "$numberDecimal":
+			case "$binary":
+			case "$timestamp":
+			case "$regex":
+				return true;
+			default:
+				return false;
+		}
+	}
+
+}
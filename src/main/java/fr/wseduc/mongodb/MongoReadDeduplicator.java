@@ -0,0 +1,83 @@
+package fr.wseduc.mongodb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Shares the reply of a read request with the identical reads sent while it is in flight,
+ * so that only the first one reaches the persistor. Every follower gets its own copy
+ * of the reply, on its own context.
+ */
+class MongoReadDeduplicator {
+
+	private static final Set<String> ACTIONS = new HashSet<>(Arrays.asList("find", "findone", "count"));
+
+	private final Map<String, List<Follower>> inFlight = new HashMap<>();
+
+	static boolean isDeduplicable(String action) {
+		return ACTIONS.contains(action);
+	}
+
+	/**
+	 * @return null if no identical read is in flight, the caller must then send the request
+	 * and call {@link #complete(String, AsyncResult)} with its reply. Otherwise, the future
+	 * of the shared reply.
+	 */
+	synchronized Future<Message<JsonObject>> join(String key, Handler<Message<JsonObject>> callback) {
+		final List<Follower> followers = inFlight.get(key);
+		if (followers == null) {
+			inFlight.put(key, new ArrayList<>());
+			return null;
+		}
+		final Follower follower = new Follower(callback, Vertx.currentContext());
+		followers.add(follower);
+		return follower.promise.future();
+	}
+
+	void complete(String key, AsyncResult<Message<JsonObject>> reply) {
+		final List<Follower> followers;
+		synchronized (this) {
+			followers = inFlight.remove(key);
+		}
+		if (followers == null) {
+			return;
+		}
+		for (Follower follower : followers) {
+			if (reply.succeeded()) {
+				final Message<JsonObject> copy = new MongoResultMessage(reply.result().body().copy());
+				MongoDb.handleOnContext(follower.context, follower.callback, copy);
+				follower.promise.complete(copy);
+			} else {
+				MongoDb.handleOnContext(follower.context, follower.callback,
+						new MongoResultMessage().error(reply.cause().getMessage()));
+				follower.promise.fail(reply.cause());
+			}
+		}
+	}
+
+	private static class Follower {
+		private final Handler<Message<JsonObject>> callback;
+		private final Context context;
+		private final Promise<Message<JsonObject>> promise = Promise.promise();
+
+		private Follower(Handler<Message<JsonObject>> callback, Context context) {
+			this.callback = callback;
+			this.context = context;
+		}
+	}
+
+}
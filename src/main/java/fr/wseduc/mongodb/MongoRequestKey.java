@@ -0,0 +1,39 @@
+package fr.wseduc.mongodb;
+
+import java.util.Map;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Builds the identity of a persistor request, used to recognize identical reads.
+ */
+final class MongoRequestKey {
+
+	private MongoRequestKey() {
+	}
+
+	/**
+	 * Encodes a request payload without its null valued fields, which the persistor
+	 * handles as absent. Field order is kept since it is significant for sorts.
+	 */
+	static String of(JsonObject payload) {
+		boolean hasNull = false;
+		for (Map.Entry<String, Object> entry : payload) {
+			if (entry.getValue() == null) {
+				hasNull = true;
+				break;
+			}
+		}
+		if (!hasNull) {
+			return payload.encode();
+		}
+		final JsonObject normalized = new JsonObject();
+		for (Map.Entry<String, Object> entry : payload) {
+			if (entry.getValue() != null) {
+				normalized.put(entry.getKey(), entry.getValue());
+			}
+		}
+		return normalized.encode();
+	}
+
+}
@@ -0,0 +1,144 @@
+package fr.wseduc.mongodb;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Bounded LRU cache of findOne, count and distinct replies, with a time to live.
+ * Every write on a collection sent through {@link MongoDb} bumps the epoch of the collection,
+ * which invalidates at once all the entries cached for it. Writes made with command(...)
+ * or by other clients are not seen, the time to live bounds their staleness.
+ */
+public class MongoResultCache {
+
+	private static final Set<String> CACHEABLE_ACTIONS = new HashSet<>(Arrays.asList(
+			"findone", "count", "distinct"));
+	private static final Set<String> WRITE_ACTIONS = new HashSet<>(Arrays.asList(
+			"save", "insert", "update", "delete", "bulk", "find_and_modify"));
+
+	private final int maxEntries;
+	private final long ttlMillis;
+	private final Set<String> collections;
+	private final LinkedHashMap<String, Entry> entries;
+	private final Map<String, Long> epochs = new HashMap<>();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder invalidations = new LongAdder();
+
+	/**
+	 * @param maxEntries the maximum number of cached replies
+	 * @param ttlMillis the maximum age of a cached reply
+	 * @param collections the cached collections, all collections if empty
+	 */
+	public MongoResultCache(int maxEntries, long ttlMillis, Set<String> collections) {
+		this.maxEntries = maxEntries;
+		this.ttlMillis = ttlMillis;
+		this.collections = collections;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				if (size() > MongoResultCache.this.maxEntries) {
+					evictions.increment();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	boolean isCacheable(String action, String collection) {
+		return CACHEABLE_ACTIONS.contains(action) &&
+				(collections == null || collections.isEmpty() || collections.contains(collection));
+	}
+
+	static boolean isWrite(String action) {
+		return WRITE_ACTIONS.contains(action);
+	}
+
+	synchronized long epoch(String collection) {
+		return epochs.getOrDefault(collection, 0L);
+	}
+
+	synchronized void invalidate(String collection) {
+		epochs.merge(collection, 1L, Long::sum);
+	}
+
+	/**
+	 * @return a copy of the cached reply, or null if absent, expired or invalidated
+	 */
+	JsonObject get(String key, String collection) {
+		final Entry entry;
+		synchronized (this) {
+			entry = entries.get(key);
+			if (entry == null) {
+				misses.increment();
+				return null;
+			}
+			if (entry.epoch != epochs.getOrDefault(collection, 0L)) {
+				entries.remove(key);
+				invalidations.increment();
+				misses.increment();
+				return null;
+			}
+			if (System.currentTimeMillis() - entry.created > ttlMillis) {
+				entries.remove(key);
+				evictions.increment();
+				misses.increment();
+				return null;
+			}
+		}
+		hits.increment();
+		return entry.body.copy();
+	}
+
+	/**
+	 * Caches a reply, unless the collection has been written since epoch was read.
+	 */
+	void put(String key, String collection, long epoch, JsonObject body) {
+		final JsonObject copy = body.copy();
+		synchronized (this) {
+			if (epoch == epochs.getOrDefault(collection, 0L)) {
+				entries.put(key, new Entry(copy, epoch, System.currentTimeMillis()));
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	public JsonObject stats() {
+		final int size;
+		synchronized (this) {
+			size = entries.size();
+		}
+		return new JsonObject()
+				.put("size", size)
+				.put("maxEntries", maxEntries)
+				.put("hits", hits.sum())
+				.put("misses", misses.sum())
+				.put("evictions", evictions.sum())
+				.put("invalidations", invalidations.sum());
+	}
+
+	private static class Entry {
+		private final JsonObject body;
+		private final long epoch;
+		private final long created;
+
+		private Entry(JsonObject body, long epoch, long created) {
+			this.body = body;
+			this.epoch = epoch;
+			this.created = created;
+		}
+	}
+
+}
@@ -0,0 +1,279 @@
+package fr.wseduc.mongodb;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Keeps the last find, count, aggregate and find_and_modify requests slower than a threshold,
+ * with their literal values redacted. A slow request is explained with the executionStats
+ * verbosity, at most explainsPerMinute times per minute, and its entry gets the stages and
+ * index names of the winning plan and the number of keys and documents examined.
+ */
+public class MongoSlowQueryLog {
+
+	private static final Set<String> ACTIONS = new HashSet<>(Arrays.asList(
+			"find", "findone", "count", "aggregate", "find_and_modify"));
+	private static final Set<String> COMMANDS = new HashSet<>(Arrays.asList(
+			"find", "count", "aggregate", "findAndModify"));
+	private static final Set<String> LITERAL_FIELDS = new HashSet<>(Arrays.asList(
+			"matcher", "criteria", "update", "objNew", "document", "documents", "pipelines",
+			"filter", "query", "pipeline"));
+
+	private final MongoDb mongo;
+	private final long thresholdNanos;
+	private final int capacity;
+	private final int explainsPerMinute;
+	private final ArrayDeque<JsonObject> entries;
+	private long windowStart;
+	private int windowExplains;
+	private long slowQueries;
+
+	MongoSlowQueryLog(MongoDb mongo, long thresholdMillis, int capacity, int explainsPerMinute) {
+		this.mongo = mongo;
+		this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, thresholdMillis));
+		this.capacity = Math.max(1, capacity);
+		this.explainsPerMinute = Math.max(0, explainsPerMinute);
+		this.entries = new ArrayDeque<>(this.capacity);
+	}
+
+	/**
+	 * @return the recorded slow requests, oldest first
+	 */
+	public synchronized JsonArray dump() {
+		final JsonArray dump = new JsonArray();
+		for (JsonObject entry : entries) {
+			dump.add(entry.copy());
+		}
+		return dump;
+	}
+
+	public synchronized long getSlowQueries() {
+		return slowQueries;
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * @param parsedCommand the parsed command of a command request, null for other requests
+	 */
+	void observe(JsonObject payload, JsonObject parsedCommand, long latencyNanos) {
+		if (latencyNanos < thresholdNanos) {
+			return;
+		}
+		final String action = payload.getString("action");
+		final JsonObject command = parsedCommand != null &&
+				COMMANDS.contains(parsedCommand.fieldNames().iterator().next()) ? parsedCommand : null;
+		if (!ACTIONS.contains(action) && command == null) {
+			return;
+		}
+		final JsonObject entry = new JsonObject()
+				.put("timestamp", System.currentTimeMillis())
+				.put("action", action)
+				.put("collection", command != null ?
+						command.getValue(command.fieldNames().iterator().next()) : payload.getValue("collection"))
+				.put("latencyMillis", TimeUnit.NANOSECONDS.toMillis(latencyNanos))
+				.put("request", redact(command != null ? command : payload));
+		final boolean explain;
+		synchronized (this) {
+			slowQueries++;
+			if (entries.size() >= capacity) {
+				entries.poll();
+			}
+			entries.add(entry);
+			explain = acquireExplain();
+		}
+		if (explain) {
+			final JsonObject explained = explainable(action, payload, command);
+			if (explained != null) {
+				explain(entry, explained);
+			}
+		}
+	}
+
+	private boolean acquireExplain() {
+		final long now = System.currentTimeMillis();
+		if (now - windowStart >= TimeUnit.MINUTES.toMillis(1)) {
+			windowStart = now;
+			windowExplains = 0;
+		}
+		if (windowExplains >= explainsPerMinute) {
+			return false;
+		}
+		windowExplains++;
+		return true;
+	}
+
+	private void explain(JsonObject entry, JsonObject explainable) {
+		final JsonObject command = new JsonObject()
+				.put("explain", explainable)
+				.put("verbosity", "executionStats");
+		mongo.command(command.encode(), message -> {
+			final JsonObject body = message.body();
+			final JsonObject explain = new JsonObject();
+			if (MongoDb.isOk(body)) {
+				final JsonObject result = body.getJsonObject("result", new JsonObject());
+				final JsonObject planner = find(result, "queryPlanner");
+				final JsonObject stats = find(result, "executionStats");
+				final JsonObject winningPlan = planner != null ? planner.getJsonObject("winningPlan") : null;
+				final JsonObject plan = winningPlan != null ? planStages(winningPlan) : null;
+				explain.put("winningPlan", plan);
+				explain.put("collectionScan", plan != null && plan.encode().contains("\"COLLSCAN\""));
+				if (stats != null) {
+					explain.put("keysExamined", stats.getValue("totalKeysExamined"));
+					explain.put("docsExamined", stats.getValue("totalDocsExamined"));
+					explain.put("nReturned", stats.getValue("nReturned"));
+					explain.put("executionTimeMillis", stats.getValue("executionTimeMillis"));
+				}
+			} else {
+				explain.put("error", MongoDb.toErrorStr(body));
+			}
+			synchronized (this) {
+				entry.put("explain", explain);
+			}
+		});
+	}
+
+	/**
+	 * @return the command equivalent to the request, to explain, or null if it can not be explained
+	 */
+	private static JsonObject explainable(String action, JsonObject payload, JsonObject command) {
+		if (command != null) {
+			final JsonObject copy = command.copy();
+			copy.remove("$db");
+			return hasOutput(copy.getValue("pipeline")) ? null : copy;
+		}
+		final String collection = payload.getString("collection");
+		switch (action) {
+			case "find":
+			case "findone":
+				final JsonObject find = new JsonObject().put("find", collection)
+						.put("filter", orEmpty(payload.getJsonObject("matcher")));
+				putIfPresent(find, "sort", payload.getValue("sort"));
+				putIfPresent(find, "projection", payload.getValue("keys"));
+				if (payload.getInteger("skip", -1) > 0) {
+					find.put("skip", payload.getInteger("skip"));
+				}
+				if ("findone".equals(action)) {
+					find.put("limit", 1);
+				} else if (payload.getInteger("limit", -1) > 0) {
+					find.put("limit", payload.getInteger("limit"));
+				}
+				return find;
+			case "count":
+				return new JsonObject().put("count", collection)
+						.put("query", orEmpty(payload.getJsonObject("matcher")));
+			case "aggregate":
+				final JsonArray pipeline = payload.getJsonArray("pipelines");
+				if (pipeline == null || hasOutput(pipeline)) {
+					return null;
+				}
+				return new JsonObject().put("aggregate", collection)
+						.put("pipeline", pipeline).put("cursor", new JsonObject());
+			case "find_and_modify":
+				final JsonObject findAndModify = new JsonObject().put("findAndModify", collection)
+						.put("query", orEmpty(payload.getJsonObject("matcher")));
+				putIfPresent(findAndModify, "sort", payload.getValue("sort"));
+				putIfPresent(findAndModify, "update", payload.getValue("update"));
+				if (payload.getBoolean("remove", false)) {
+					findAndModify.put("remove", true);
+				}
+				return findAndModify;
+			default:
+				return null;
+		}
+	}
+
+	private static JsonObject redact(JsonObject request) {
+		final JsonObject redacted = new JsonObject();
+		for (Map.Entry<String, Object> entry : request) {
+			redacted.put(entry.getKey(), LITERAL_FIELDS.contains(entry.getKey()) ?
+					MongoQueryShape.redact(entry.getValue()) : entry.getValue());
+		}
+		return redacted;
+	}
+
+	/**
+	 * @return the stages of plan with their index names, without the filters, bounds and
+	 * parsed queries holding the literal values of the request
+	 */
+	private static JsonObject planStages(JsonObject plan) {
+		final JsonObject stages = new JsonObject().put("stage", plan.getValue("stage"));
+		putIfPresent(stages, "indexName", plan.getValue("indexName"));
+		if (plan.getValue("queryPlan") instanceof JsonObject) {
+			// slot based engine plans
+			stages.put("queryPlan", planStages(plan.getJsonObject("queryPlan")));
+		}
+		if (plan.getValue("inputStage") instanceof JsonObject) {
+			stages.put("inputStage", planStages(plan.getJsonObject("inputStage")));
+		}
+		if (plan.getValue("inputStages") instanceof JsonArray) {
+			final JsonArray inputs = new JsonArray();
+			for (Object input : plan.getJsonArray("inputStages")) {
+				if (input instanceof JsonObject) {
+					inputs.add(planStages((JsonObject) input));
+				}
+			}
+			stages.put("inputStages", inputs);
+		}
+		return stages;
+	}
+
+	private static boolean hasOutput(Object pipeline) {
+		if (!(pipeline instanceof JsonArray)) {
+			return false;
+		}
+		for (Object stage : (JsonArray) pipeline) {
+			if (stage instanceof JsonObject &&
+					(((JsonObject) stage).containsKey("$out") || ((JsonObject) stage).containsKey("$merge"))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the first object named field in a depth first walk of value
+	 */
+	private static JsonObject find(Object value, String field) {
+		if (value instanceof JsonObject) {
+			final JsonObject object = (JsonObject) value;
+			if (object.getValue(field) instanceof JsonObject) {
+				return object.getJsonObject(field);
+			}
+			for (Map.Entry<String, Object> entry : object) {
+				final JsonObject found = find(entry.getValue(), field);
+				if (found != null) {
+					return found;
+				}
+			}
+		} else if (value instanceof JsonArray) {
+			for (Object item : (JsonArray) value) {
+				final JsonObject found = find(item, field);
+				if (found != null) {
+					return found;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static JsonObject orEmpty(JsonObject object) {
+		return object != null ? object : new JsonObject();
+	}
+
+	private static void putIfPresent(JsonObject object, String field, Object value) {
+		if (value != null) {
+			object.put(field, value);
+		}
+	}
+
+}
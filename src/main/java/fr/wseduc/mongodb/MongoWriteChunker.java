@@ -0,0 +1,193 @@
+package fr.wseduc.mongodb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Splits the documents of a multiple insert or the commands of a bulk into chunks of at most
+ * maxBytes estimated BSON bytes and maxOperations items, sent as separate requests. Ordered
+ * chunks are sent one after the other and stop at the first failed chunk, unordered chunks
+ * are sent concurrency at a time. The replies are merged into one : numbers are summed,
+ * arrays are concatenated and the failures are listed in "errors".
+ */
+class MongoWriteChunker {
+
+	private static final int PAYLOAD_OVERHEAD = 1024;
+
+	private final int maxBytes;
+	private final int maxOperations;
+	private final int concurrency;
+
+	MongoWriteChunker(int maxBytes, int maxOperations, int concurrency) {
+		this.maxBytes = Math.max(1, maxBytes - PAYLOAD_OVERHEAD);
+		this.maxOperations = Math.max(1, maxOperations);
+		this.concurrency = Math.max(1, concurrency);
+	}
+
+	boolean needsSplit(JsonArray items) {
+		return items.size() > maxOperations || JsonSizeEstimator.estimate(items) > maxBytes;
+	}
+
+	List<JsonArray> split(JsonArray items) {
+		final List<JsonArray> chunks = new ArrayList<>();
+		JsonArray chunk = new JsonArray();
+		int chunkBytes = 0;
+		for (int i = 0; i < items.size(); i++) {
+			final Object item = items.getValue(i);
+			final int itemBytes = item instanceof JsonObject ?
+					JsonSizeEstimator.estimate((JsonObject) item) + 8 :
+					JsonSizeEstimator.estimate(new JsonArray().add(item));
+			if (!chunk.isEmpty() && (chunk.size() >= maxOperations || chunkBytes + itemBytes > maxBytes)) {
+				chunks.add(chunk);
+				chunk = new JsonArray();
+				chunkBytes = 0;
+			}
+			chunk.add(item);
+			chunkBytes += itemBytes;
+		}
+		if (!chunk.isEmpty()) {
+			chunks.add(chunk);
+		}
+		return chunks;
+	}
+
+	/**
+	 * Sends template with field set to each chunk of items.
+	 */
+	void execute(JsonObject template, String field, JsonArray items, boolean ordered,
+			Function<JsonObject, Future<Message<JsonObject>>> sender, Handler<Message<JsonObject>> callback) {
+		new Run(template, field, split(items), ordered ? 1 : concurrency, ordered, sender, callback).start();
+	}
+
+	private static class Run {
+		private final JsonObject template;
+		private final String field;
+		private final List<JsonArray> chunks;
+		private final int concurrency;
+		private final boolean ordered;
+		private final Function<JsonObject, Future<Message<JsonObject>>> sender;
+		private final Handler<Message<JsonObject>> callback;
+		private final JsonObject merged = new JsonObject();
+		private final JsonArray errors = new JsonArray();
+		private int next;
+		private int inFlight;
+		private boolean stopped;
+		private boolean finished;
+
+		private Run(JsonObject template, String field, List<JsonArray> chunks, int concurrency, boolean ordered,
+				Function<JsonObject, Future<Message<JsonObject>>> sender, Handler<Message<JsonObject>> callback) {
+			this.template = template;
+			this.field = field;
+			this.chunks = chunks;
+			this.concurrency = concurrency;
+			this.ordered = ordered;
+			this.sender = sender;
+			this.callback = callback;
+		}
+
+		private void start() {
+			final List<Integer> toSend = new ArrayList<>();
+			final boolean finishing;
+			synchronized (this) {
+				while (!stopped && inFlight < concurrency && next < chunks.size()) {
+					toSend.add(next++);
+					inFlight++;
+				}
+				finishing = !finished && inFlight == 0 && (stopped || next >= chunks.size());
+				finished |= finishing;
+			}
+			for (int index : toSend) {
+				send(index);
+			}
+			if (finishing) {
+				finish();
+			}
+		}
+
+		private void send(int index) {
+			final JsonObject payload = template.copy();
+			payload.put(field, chunks.get(index));
+			if ("documents".equals(field)) {
+				payload.put("multiple", true);
+			}
+			Future<Message<JsonObject>> future;
+			try {
+				future = sender.apply(payload);
+			} catch (RuntimeException e) {
+				future = Future.failedFuture(e);
+			}
+			future.onComplete(ar -> completed(index, ar));
+		}
+
+		private void completed(int index, AsyncResult<Message<JsonObject>> ar) {
+			synchronized (this) {
+				inFlight--;
+				final JsonObject body = ar.succeeded() ? ar.result().body() : null;
+				if (body != null && MongoDb.isOk(body)) {
+					merge(body);
+				} else {
+					errors.add(new JsonObject()
+							.put("chunk", index)
+							.put("offset", offset(index))
+							.put("count", chunks.get(index).size())
+							.put("message", body != null ? MongoDb.toErrorStr(body) : ar.cause().getMessage()));
+					stopped |= ordered;
+				}
+			}
+			start();
+		}
+
+		private int offset(int index) {
+			int offset = 0;
+			for (int i = 0; i < index; i++) {
+				offset += chunks.get(i).size();
+			}
+			return offset;
+		}
+
+		private void merge(JsonObject body) {
+			for (Map.Entry<String, Object> entry : body) {
+				final String key = entry.getKey();
+				final Object value = entry.getValue();
+				final Object current = merged.getValue(key);
+				if ("status".equals(key)) {
+					continue;
+				} else if (value instanceof Number && current instanceof Number) {
+					merged.put(key, ((Number) current).longValue() + ((Number) value).longValue());
+				} else if (value instanceof JsonArray && current instanceof JsonArray) {
+					((JsonArray) current).addAll((JsonArray) value);
+				} else if (current == null) {
+					merged.put(key, value instanceof JsonArray ? ((JsonArray) value).copy() : value);
+				}
+			}
+		}
+
+		private void finish() {
+			if (callback == null) {
+				return;
+			}
+			final JsonObject reply;
+			synchronized (this) {
+				reply = merged.copy();
+				if (errors.isEmpty()) {
+					reply.put("status", "ok");
+				} else {
+					reply.put("status", "error")
+							.put("message", errors.getJsonObject(0).getString("message"))
+							.put("errors", errors.copy());
+				}
+			}
+			callback.handle(new MongoResultMessage(reply));
+		}
+	}
+
+}
@@ -0,0 +1,149 @@
+package fr.wseduc.mongodb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Merges single document inserts on the same collection into one multiple insert, sent
+ * when maxDocuments documents are pending or windowMillis after the first pending one.
+ * Only documents without _id are merged : identifiers are generated before sending so that
+ * each caller gets back the _id of its own document.
+ * <p>
+ * The merged insert stops at the first failing document, after writing the previous ones. The
+ * documents of a failed batch are then inserted one at a time : a duplicate key error on the
+ * generated _id means that the merged insert wrote the document, any other error belongs to
+ * the caller of the document.
+ */
+class MongoWriteCoalescer {
+
+	private static final String DUPLICATE_KEY = "E11000";
+
+	private final Vertx vertx;
+	private final MongoDb mongo;
+	private final long windowMillis;
+	private final int maxDocuments;
+	private final Map<String, Batch> batches = new HashMap<>();
+
+	MongoWriteCoalescer(Vertx vertx, MongoDb mongo, long windowMillis, int maxDocuments) {
+		this.vertx = vertx;
+		this.mongo = mongo;
+		this.windowMillis = Math.max(1L, windowMillis);
+		this.maxDocuments = Math.max(1, maxDocuments);
+	}
+
+	void insert(String collection, JsonObject document, Handler<Message<JsonObject>> callback) {
+		document = document.copy().put("_id", UUID.randomUUID().toString());
+		final Batch full;
+		synchronized (this) {
+			final Batch batch = batches.computeIfAbsent(collection, k -> new Batch());
+			batch.documents.add(document);
+			batch.callers.add(new Caller(document.getValue("_id"), callback, Vertx.currentContext()));
+			if (batch.documents.size() >= maxDocuments) {
+				batches.remove(collection);
+				if (batch.timerId >= 0L) {
+					vertx.cancelTimer(batch.timerId);
+				}
+				full = batch;
+			} else {
+				if (batch.timerId < 0L) {
+					batch.timerId = vertx.setTimer(windowMillis, timerId -> flush(collection, timerId));
+				}
+				full = null;
+			}
+		}
+		if (full != null) {
+			send(collection, full);
+		}
+	}
+
+	void flushAll() {
+		final Map<String, Batch> pending;
+		synchronized (this) {
+			pending = new HashMap<>(batches);
+			batches.clear();
+		}
+		pending.forEach((collection, batch) -> {
+			if (batch.timerId >= 0L) {
+				vertx.cancelTimer(batch.timerId);
+			}
+			send(collection, batch);
+		});
+	}
+
+	private void flush(String collection, long timerId) {
+		final Batch batch;
+		synchronized (this) {
+			batch = batches.get(collection);
+			if (batch == null || batch.timerId != timerId) {
+				return;
+			}
+			batches.remove(collection);
+		}
+		send(collection, batch);
+	}
+
+	private void send(String collection, Batch batch) {
+		mongo.sendInsert(collection, batch.documents, null, null, message -> {
+			final JsonObject body = message.body();
+			if (MongoDb.isOk(body) || batch.callers.size() == 1) {
+				for (Caller caller : batch.callers) {
+					reply(caller, body);
+				}
+				return;
+			}
+			for (int i = 0; i < batch.callers.size(); i++) {
+				final Caller caller = batch.callers.get(i);
+				mongo.sendInsert(collection, new JsonArray().add(batch.documents.getJsonObject(i)), null, null,
+						retry -> reply(caller, isWrittenBefore(caller, retry.body()) ?
+								new JsonObject().put("status", "ok") : retry.body()));
+			}
+		});
+	}
+
+	private static void reply(Caller caller, JsonObject body) {
+		final MongoResultMessage result = MongoDb.isOk(body) ?
+				new MongoResultMessage().put("_id", caller.id) :
+				new MongoResultMessage().error(MongoDb.toErrorStr(body));
+		MongoDb.handleOnContext(caller.context, caller.callback, result);
+	}
+
+	/**
+	 * @return true if body is the duplicate key error of the generated _id of the caller
+	 */
+	private static boolean isWrittenBefore(Caller caller, JsonObject body) {
+		if (MongoDb.isOk(body)) {
+			return false;
+		}
+		final String error = MongoDb.toErrorStr(body);
+		return error.contains(DUPLICATE_KEY) && error.contains(caller.id.toString());
+	}
+
+	private static class Batch {
+		private final JsonArray documents = new JsonArray();
+		private final List<Caller> callers = new ArrayList<>();
+		private long timerId = -1L;
+	}
+
+	private static class Caller {
+		private final Object id;
+		private final Handler<Message<JsonObject>> callback;
+		private final Context context;
+
+		private Caller(Object id, Handler<Message<JsonObject>> callback, Context context) {
+			this.id = id;
+			this.callback = callback;
+			this.context = context;
+		}
+	}
+
+}
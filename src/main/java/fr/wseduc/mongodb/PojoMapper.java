@@ -0,0 +1,61 @@
+package fr.wseduc.mongodb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.json.jackson.DatabindCodec;
+
+/**
+ * Maps documents to POJOs with the Vert.x object mapper, as {@link JsonObject#mapTo(Class)}.
+ * The reader of each class is built once. Document fields without a matching property, as
+ * _id, are ignored.
+ */
+public final class PojoMapper {
+
+	private static final ConcurrentHashMap<Class<?>, ObjectReader> READERS = new ConcurrentHashMap<>();
+
+	private PojoMapper() {
+	}
+
+	/**
+	 * @throws DecodeException if the document does not match the class
+	 */
+	public static <T> T mapTo(JsonObject document, Class<T> type) {
+		if (document == null) {
+			return null;
+		}
+		final ObjectMapper mapper = DatabindCodec.mapper();
+		try (TokenBuffer buffer = new TokenBuffer(mapper, false)) {
+			mapper.writeValue(buffer, document.getMap());
+			return reader(type).readValue(buffer.asParser());
+		} catch (IOException e) {
+			throw new DecodeException("Failed to map document to " + type.getName() + " : " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @throws DecodeException if a document does not match the class
+	 */
+	public static <T> List<T> mapTo(JsonArray documents, Class<T> type) {
+		final List<T> pojos = new ArrayList<>(documents.size());
+		for (int i = 0; i < documents.size(); i++) {
+			pojos.add(mapTo(documents.getJsonObject(i), type));
+		}
+		return pojos;
+	}
+
+	private static ObjectReader reader(Class<?> type) {
+		return READERS.computeIfAbsent(type, t -> DatabindCodec.mapper().readerFor(t)
+				.without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES));
+	}
+
+}
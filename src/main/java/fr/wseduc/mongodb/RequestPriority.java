@@ -0,0 +1,39 @@
+package fr.wseduc.mongodb;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.eventbus.DeliveryOptions;
+
+/**
+ * Admission lane of a request, see {@link MongoDb#enableAdmissionControl(int, int, int)}.
+ * Queued interactive requests are always admitted before queued background requests.
+ */
+public enum RequestPriority {
+
+	INTERACTIVE, BACKGROUND;
+
+	/** delivery options header selecting the lane of a request */
+	public static final String HEADER = "mongodb-priority";
+
+	/**
+	 * @return deliveryOptions, or new delivery options if null, with the lane header
+	 */
+	public DeliveryOptions apply(DeliveryOptions deliveryOptions) {
+		final DeliveryOptions options = deliveryOptions == null ? new DeliveryOptions() : deliveryOptions;
+		options.addHeader(HEADER, name());
+		return options;
+	}
+
+	static RequestPriority of(DeliveryOptions deliveryOptions, RequestPriority defaultPriority) {
+		final MultiMap headers = deliveryOptions == null ? null : deliveryOptions.getHeaders();
+		final String priority = headers == null ? null : headers.get(HEADER);
+		if (priority != null) {
+			for (RequestPriority p : values()) {
+				if (p.name().equalsIgnoreCase(priority)) {
+					return p;
+				}
+			}
+		}
+		return defaultPriority;
+	}
+
+}
@@ -1,11 +1,14 @@
 package fr.wseduc.mongodb.integration;
 
+import java.util.Arrays;
 import java.util.Optional;
 
 import com.mongodb.client.model.Filters;
+import org.bson.Document;
 import org.junit.Test;
 
 import fr.wseduc.mongodb.AggregationsBuilder;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import junit.framework.Assert;
 
@@ -64,4 +67,61 @@ public class AggregatorTest {
 				.getCommand();
 		Assert.assertEquals(new JsonObject(aggregationQuery), command);
 	}
+
+	@Test
+	public void shouldPushMatchBeforeLookupAndUnwind() {
+		final AggregationsBuilder builder = AggregationsBuilder.startWithCollection("test")
+				.withLookup("users", "owner", "_id", "users")
+				.withUnwind("$users")
+				.withSort(new JsonObject().put("modified", -1))
+				.withMatch(Filters.eq("type", "doc"))
+				.withMatch(Filters.eq("users.profile", "Teacher"))
+				.optimize();
+		final JsonArray expected = new JsonArray()
+				.add(new JsonObject().put("$match", new JsonObject().put("type", "doc")))
+				.add(new JsonObject().put("$lookup", new JsonObject().put("from", "users")
+						.put("localField", "owner").put("foreignField", "_id").put("as", "users")))
+				.add(new JsonObject().put("$unwind", "$users"))
+				.add(new JsonObject().put("$match", new JsonObject().put("users.profile", "Teacher")))
+				.add(new JsonObject().put("$sort", new JsonObject().put("modified", -1)));
+		Assert.assertEquals(expected, builder.getCommand().getJsonArray("pipeline"));
+		Assert.assertFalse(builder.getOptimizations().isEmpty());
+	}
+
+	@Test
+	public void shouldMergeAdjacentStages() {
+		final JsonArray pipeline = AggregationsBuilder.startWithCollection("test")
+				.withMatch(Filters.eq("a", 1))
+				.withMatch(Filters.eq("b", 2))
+				.withSkip(10)
+				.withSkip(5)
+				.withProjection(new JsonObject().put("a", 1))
+				.withLimit(20)
+				.withLimit(8)
+				.optimize()
+				.getCommand().getJsonArray("pipeline");
+		Assert.assertEquals(4, pipeline.size());
+		Assert.assertEquals(new JsonObject().put("$and", new JsonArray()
+				.add(new JsonObject().put("a", 1)).add(new JsonObject().put("b", 2))),
+				pipeline.getJsonObject(0).getJsonObject("$match"));
+		Assert.assertEquals(15L, pipeline.getJsonObject(1).getLong("$skip").longValue());
+		Assert.assertEquals(8L, pipeline.getJsonObject(2).getLong("$limit").longValue());
+		Assert.assertTrue(pipeline.getJsonObject(3).containsKey("$project"));
+	}
+
+	@Test
+	public void shouldKeepDependentMatchInPlace() {
+		final AggregationsBuilder builder = AggregationsBuilder.startWithCollection("test")
+				.withGroup(new JsonObject().put("_id", "$owner").put("count", new JsonObject().put("$sum", 1)))
+				.withMatch(Filters.gt("count", 2))
+				.withAddFields(new JsonObject().put("total", new JsonObject().put("$add", new JsonArray().add("$count").add(1))))
+				.withMatch(Filters.gt("total", 3))
+				.withProjection(new JsonObject().put("name", 1))
+				.withMatch(Filters.eq("owner", "u1"))
+				.withSort(new JsonObject().put("name", 1))
+				.withMatch(Filters.expr(new Document("$gt", Arrays.asList("$a", "$b"))))
+				.optimize();
+		Assert.assertTrue(builder.getOptimizations().isEmpty());
+		Assert.assertEquals(8, builder.getCommand().getJsonArray("pipeline").size());
+	}
 }
@@ -0,0 +1,105 @@
+package fr.wseduc.mongodb.integration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import fr.wseduc.mongodb.BulkWriteBuilder;
+import fr.wseduc.mongodb.MongoUpdateBuilder;
+import junit.framework.Assert;
+
+public class BulkWriteBuilderTest {
+
+	@Test
+	public void shouldBuildCommands() {
+		final JsonObject criteria = new JsonObject().put("_id", "id1");
+		final JsonObject inc = new JsonObject().put("$inc", new JsonObject().put("n", 1));
+		final JsonArray commands = new BulkWriteBuilder()
+				.insert(new JsonObject().put("name", "a"))
+				.updateOne(criteria, new MongoUpdateBuilder().set("name", "b"))
+				.updateMany(new JsonObject().put("owner", "u1"), inc)
+				.replaceOne(criteria, new JsonObject().put("name", "c"))
+				.deleteOne(criteria)
+				.deleteMany(new JsonObject().put("owner", "u2"))
+				.build();
+		Assert.assertEquals(6, commands.size());
+		Assert.assertEquals(new JsonObject().put("operation", "insert")
+				.put("document", new JsonObject().put("name", "a")), commands.getJsonObject(0));
+		Assert.assertEquals(new JsonObject().put("operation", "updateOne").put("criteria", criteria)
+				.put("document", new JsonObject().put("$set", new JsonObject().put("name", "b"))), commands.getJsonObject(1));
+		Assert.assertEquals(new JsonObject().put("operation", "update")
+				.put("criteria", new JsonObject().put("owner", "u1")).put("document", inc), commands.getJsonObject(2));
+		Assert.assertEquals(new JsonObject().put("operation", "replaceOne").put("criteria", criteria)
+				.put("document", new JsonObject().put("name", "c")), commands.getJsonObject(3));
+		Assert.assertEquals(new JsonObject().put("operation", "removeOne").put("criteria", criteria),
+				commands.getJsonObject(4));
+		Assert.assertEquals(new JsonObject().put("operation", "remove")
+				.put("criteria", new JsonObject().put("owner", "u2")), commands.getJsonObject(5));
+	}
+
+	@Test
+	public void shouldEncodeUpsertAsOperation() {
+		final JsonObject criteria = new JsonObject().put("_id", "id1");
+		final JsonObject update = new JsonObject().put("$set", new JsonObject().put("name", "b"));
+		final JsonArray commands = new BulkWriteBuilder().updateOne(criteria, update, true).build();
+		Assert.assertEquals(new JsonObject().put("operation", "upsert").put("criteria", criteria)
+				.put("document", update), commands.getJsonObject(0));
+	}
+
+	@Test
+	public void shouldFlushWhenOperationCountIsReached() {
+		final BulkWriteBuilder builder = new BulkWriteBuilder(3, Integer.MAX_VALUE);
+		final List<JsonArray> bulks = new ArrayList<>();
+		for (int i = 0; i < 7; i++) {
+			builder.insert(new JsonObject().put("i", i));
+			builder.flushIfFull(bulks::add);
+		}
+		Assert.assertEquals(2, bulks.size());
+		Assert.assertEquals(3, bulks.get(1).size());
+		Assert.assertEquals(1, builder.size());
+		Assert.assertEquals(6, bulks.get(1).getJsonObject(2).getJsonObject("document").getInteger("i").intValue());
+	}
+
+	@Test
+	public void shouldFlushWhenEstimatedSizeIsReached() {
+		final BulkWriteBuilder builder = new BulkWriteBuilder(Integer.MAX_VALUE, 1000);
+		final int empty = builder.estimatedSize();
+		builder.insert(new JsonObject().put("text", "small"));
+		Assert.assertTrue(builder.estimatedSize() > empty);
+		Assert.assertFalse(builder.flushIfFull(bulk -> Assert.fail()));
+		final StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			text.append('x');
+		}
+		builder.insert(new JsonObject().put("text", text.toString()));
+		final List<JsonArray> bulks = new ArrayList<>();
+		Assert.assertTrue(builder.flushIfFull(bulks::add));
+		// the large command did not fit next to the small one
+		Assert.assertEquals(2, bulks.size());
+		Assert.assertEquals("small", bulks.get(0).getJsonObject(0).getJsonObject("document").getString("text"));
+		Assert.assertEquals(1, bulks.get(1).size());
+		Assert.assertTrue(builder.isEmpty());
+		Assert.assertEquals(empty, builder.estimatedSize());
+	}
+
+	@Test
+	public void shouldNotExceedEstimatedSizeWhenAdding() {
+		final BulkWriteBuilder builder = new BulkWriteBuilder(Integer.MAX_VALUE, 200);
+		final List<JsonArray> bulks = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			builder.insert(new JsonObject().put("text", "0123456789012345678901234567890123456789"));
+			Assert.assertTrue(builder.estimatedSize() <= 200);
+			builder.flushIfFull(bulks::add);
+		}
+		Assert.assertFalse(bulks.isEmpty());
+		int count = builder.size();
+		for (JsonArray bulk : bulks) {
+			count += bulk.size();
+		}
+		Assert.assertEquals(20, count);
+	}
+
+}
@@ -0,0 +1,77 @@
+package fr.wseduc.mongodb.integration;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.wseduc.mongodb.MongoDb;
+import junit.framework.Assert;
+
+public class DeadlinePropagationTest {
+
+	private static final String ADDRESS = "test.deadline.persistor";
+
+	private Vertx vertx;
+	private MongoDb mongo;
+	private final List<JsonObject> requests = new CopyOnWriteArrayList<>();
+
+	@Before
+	public void setUp() {
+		vertx = Vertx.vertx();
+		vertx.eventBus().<JsonObject>localConsumer(ADDRESS, message -> {
+			requests.add(message.body());
+			message.reply(new JsonObject().put("status", "ok").put("results", new JsonArray()));
+		});
+		mongo = MongoDb.getInstance();
+		mongo.init(vertx.eventBus(), ADDRESS);
+		mongo.enableDeadlinePropagation();
+	}
+
+	@After
+	public void tearDown() {
+		mongo.disableDeadlinePropagation();
+		vertx.close();
+	}
+
+	@Test
+	public void shouldLimitRequestsSentWithoutDeliveryOptions() throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(4);
+		mongo.count("users", new JsonObject(), message -> latch.countDown());
+		mongo.distinct("users", "profile", message -> latch.countDown());
+		mongo.find("users", new JsonObject(), message -> latch.countDown());
+		mongo.aggregate("users", new JsonArray().add(new JsonObject().put("$match", new JsonObject())))
+				.onComplete(e -> latch.countDown());
+		Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals(4, requests.size());
+		for (JsonObject request : requests) {
+			final Long maxTimeMs = request.getLong("max_time_ms");
+			Assert.assertNotNull(request.getString("action"), maxTimeMs);
+			Assert.assertTrue(maxTimeMs > 0L && maxTimeMs <= DeliveryOptions.DEFAULT_TIMEOUT);
+		}
+	}
+
+	@Test
+	public void shouldKeepLowerCommandTimeLimit() throws InterruptedException {
+		final CountDownLatch limitedLatch = new CountDownLatch(1);
+		final String limited = new JsonObject().put("count", "users").put("maxTimeMS", 50).encode();
+		mongo.command(limited, new DeliveryOptions().setSendTimeout(10000L), message -> limitedLatch.countDown());
+		Assert.assertTrue(limitedLatch.await(5, TimeUnit.SECONDS));
+		final CountDownLatch latch = new CountDownLatch(1);
+		mongo.command(new JsonObject().put("distinct", "users").put("key", "profile").encode(),
+				message -> latch.countDown());
+		Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals(limited, requests.get(0).getString("command"));
+		final Long maxTimeMs = new JsonObject(requests.get(1).getString("command")).getLong("maxTimeMS");
+		Assert.assertTrue(maxTimeMs > 0L && maxTimeMs <= DeliveryOptions.DEFAULT_TIMEOUT);
+	}
+
+}
@@ -0,0 +1,100 @@
+package fr.wseduc.mongodb.integration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import fr.wseduc.mongodb.KeysetPagination;
+import junit.framework.Assert;
+
+public class KeysetPaginationTest {
+
+	@Test
+	public void shouldAddIdTieBreaker() {
+		final JsonObject sort = KeysetPagination.sortWithTieBreaker(new JsonObject().put("modified", -1));
+		Assert.assertEquals(Arrays.asList("modified", "_id"), new ArrayList<>(sort.fieldNames()));
+		Assert.assertEquals(new JsonObject().put("_id", 1), KeysetPagination.sortWithTieBreaker(null));
+	}
+
+	@Test
+	public void shouldBuildRangeMatcherFromToken() {
+		final JsonObject sort = KeysetPagination.sortWithTieBreaker(new JsonObject().put("modified", -1));
+		final JsonObject last = new JsonObject().put("_id", "id3").put("name", "c").put("modified", 30);
+		final String token = KeysetPagination.token(last, sort);
+		final JsonObject matcher = KeysetPagination.pageMatcher(new JsonObject().put("owner", "u1"), sort, token);
+		final JsonObject expected = new JsonObject().put("$and", new JsonArray()
+				.add(new JsonObject().put("owner", "u1"))
+				.add(new JsonObject().put("$or", new JsonArray()
+						.add(new JsonObject().put("modified", new JsonObject().put("$lt", 30)))
+						.add(new JsonObject().put("modified", 30).put("_id", new JsonObject().put("$gt", "id3"))))));
+		Assert.assertEquals(expected, matcher);
+	}
+
+	@Test
+	public void shouldReadNestedSortFields() {
+		final JsonObject sort = KeysetPagination.sortWithTieBreaker(new JsonObject().put("owner.name", 1));
+		final JsonObject last = new JsonObject().put("_id", "id1").put("owner", new JsonObject().put("name", "n"));
+		final JsonObject matcher = KeysetPagination.pageMatcher(null, sort, KeysetPagination.token(last, sort));
+		Assert.assertEquals("n", matcher.getJsonArray("$or").getJsonObject(0)
+				.getJsonObject("owner.name").getString("$gt"));
+	}
+
+	@Test
+	public void shouldIncludeSortFieldsInProjection() {
+		final JsonObject sort = KeysetPagination.sortWithTieBreaker(new JsonObject().put("modified", -1));
+		Assert.assertEquals(new JsonObject().put("name", 1).put("modified", 1).put("_id", 1),
+				KeysetPagination.keysWithSortFields(new JsonObject().put("name", 1), sort));
+		final JsonObject exclusion = new JsonObject().put("content", 0);
+		Assert.assertEquals(exclusion, KeysetPagination.keysWithSortFields(exclusion, sort));
+	}
+
+	@Test
+	public void shouldProjectExcludedIdAndHideIt() {
+		final JsonObject keys = new JsonObject().put("name", 1).put("_id", 0);
+		final JsonObject sort = KeysetPagination.sortWithTieBreaker(new JsonObject().put("name", 1).put("_id", 1));
+		Assert.assertEquals(new JsonObject().put("name", 1).put("_id", 1),
+				KeysetPagination.keysWithSortFields(keys, sort));
+		final JsonArray page = new JsonArray()
+				.add(new JsonObject().put("_id", "id1").put("name", "a"))
+				.add(new JsonObject().put("_id", "id2").put("name", "a"));
+		final String token = KeysetPagination.token(page.getJsonObject(1), sort);
+		KeysetPagination.removeFields(page, KeysetPagination.hiddenSortFields(keys, sort));
+		Assert.assertEquals(new JsonObject().put("name", "a"), page.getJsonObject(1));
+		final JsonObject next = new JsonObject().put("$or", new JsonArray()
+				.add(new JsonObject().put("name", new JsonObject().put("$gt", "a")))
+				.add(new JsonObject().put("name", "a").put("_id", new JsonObject().put("$gt", "id2"))));
+		Assert.assertEquals(next, KeysetPagination.pageMatcher(null, sort, token));
+	}
+
+	@Test
+	public void shouldProjectExcludedSortFieldAndHideIt() {
+		final JsonObject keys = new JsonObject().put("content", 0).put("owner", 0);
+		final JsonObject sort = KeysetPagination.sortWithTieBreaker(new JsonObject().put("owner.name", 1));
+		Assert.assertEquals(new JsonObject().put("content", 0), KeysetPagination.keysWithSortFields(keys, sort));
+		final JsonArray page = new JsonArray().add(new JsonObject().put("_id", "id1")
+				.put("owner", new JsonObject().put("name", "n").put("id", "u1")));
+		KeysetPagination.removeFields(page, KeysetPagination.hiddenSortFields(keys, sort));
+		Assert.assertEquals(new JsonObject().put("_id", "id1"), page.getJsonObject(0));
+	}
+
+	@Test
+	public void shouldHideNestedSortFieldOnly() {
+		final JsonObject keys = new JsonObject().put("title", 1);
+		final JsonObject sort = KeysetPagination.sortWithTieBreaker(new JsonObject().put("owner.name", 1));
+		Assert.assertEquals(Arrays.asList("owner.name"), KeysetPagination.hiddenSortFields(keys, sort));
+		Assert.assertTrue(KeysetPagination.hiddenSortFields(new JsonObject().put("owner", 1), sort).isEmpty());
+		final JsonArray page = new JsonArray().add(new JsonObject().put("_id", "id1").put("title", "t")
+				.put("owner", new JsonObject().put("name", "n")));
+		KeysetPagination.removeFields(page, KeysetPagination.hiddenSortFields(keys, sort));
+		Assert.assertEquals(new JsonObject().put("_id", "id1").put("title", "t"), page.getJsonObject(0));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectInvalidToken() {
+		KeysetPagination.pageMatcher(null, new JsonObject().put("_id", 1), "not a token");
+	}
+
+}
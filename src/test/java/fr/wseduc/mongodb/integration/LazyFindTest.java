@@ -0,0 +1,69 @@
+package fr.wseduc.mongodb.integration;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.wseduc.mongodb.LazyResults;
+import fr.wseduc.mongodb.MongoDb;
+import junit.framework.Assert;
+
+public class LazyFindTest {
+
+	private static final String ADDRESS = "test.lazy.persistor";
+
+	private Vertx vertx;
+	private MongoDb mongo;
+	private final List<JsonObject> requests = new CopyOnWriteArrayList<>();
+
+	@Before
+	public void setUp() {
+		vertx = Vertx.vertx();
+		// replies in batches of one document, as the persistor does for batch_size 1
+		vertx.eventBus().<JsonObject>localConsumer(ADDRESS, message -> {
+			requests.add(message.body());
+			message.<JsonObject>replyAndRequest(batch("more-exist", "a")).onSuccess(next ->
+					next.reply(batch("ok", "b")));
+		});
+		mongo = MongoDb.getInstance();
+		mongo.init(vertx.eventBus(), ADDRESS);
+	}
+
+	@After
+	public void tearDown() {
+		vertx.close();
+	}
+
+	@Test
+	public void shouldCollectEveryBatchWithBoundedBatchSize() throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(1);
+		final AtomicReference<AsyncResult<LazyResults>> result = new AtomicReference<>();
+		mongo.findLazy("users", new JsonObject(), null, null, 0, -1).onComplete(e -> {
+			result.set(e);
+			latch.countDown();
+		});
+		Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+		Assert.assertTrue(result.get().succeeded());
+		final LazyResults results = result.get().result();
+		Assert.assertEquals(2, results.size());
+		Assert.assertEquals("a", results.get(0).getString("name"));
+		Assert.assertEquals("b", results.get(1).getString("name"));
+		Assert.assertEquals(1000, requests.get(0).getInteger("batch_size").intValue());
+	}
+
+	private static JsonObject batch(String status, String name) {
+		return new JsonObject().put("status", status)
+				.put("results", new JsonArray().add(new JsonObject().put("name", name)));
+	}
+
+}
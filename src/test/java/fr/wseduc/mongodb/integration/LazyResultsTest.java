@@ -0,0 +1,76 @@
+package fr.wseduc.mongodb.integration;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.bson.ByteBuf;
+import org.bson.RawBsonDocument;
+import org.junit.Test;
+
+import fr.wseduc.mongodb.LazyDocument;
+import fr.wseduc.mongodb.LazyResults;
+import junit.framework.Assert;
+
+public class LazyResultsTest {
+
+	@Test
+	public void shouldSplitRawDocuments() {
+		final byte[] first = bytes("{\"name\": \"a\", \"n\": 1, \"active\": true}");
+		final byte[] second = bytes("{\"name\": \"b\", \"n\": {\"$numberLong\": \"3000000000\"}}");
+		final byte[] raw = new byte[first.length + second.length];
+		System.arraycopy(first, 0, raw, 0, first.length);
+		System.arraycopy(second, 0, raw, first.length, second.length);
+		final LazyResults results = LazyResults.of(new JsonObject().put("raw_results", raw));
+		Assert.assertTrue(results.isRaw());
+		Assert.assertEquals(2, results.size());
+		Assert.assertEquals("a", results.get(0).getString("name"));
+		Assert.assertEquals(Integer.valueOf(1), results.get(0).getInteger("n"));
+		Assert.assertEquals(Long.valueOf(3000000000L), results.get(1).getLong("n"));
+	}
+
+	@Test
+	public void shouldReadEmptyRawResults() {
+		final LazyResults results = LazyResults.of(new JsonObject().put("raw_results", new byte[0]));
+		Assert.assertTrue(results.isEmpty());
+		Assert.assertFalse(results.iterator().hasNext());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectTruncatedLength() {
+		LazyResults.of(new JsonObject().put("raw_results", new byte[] { 5, 0 }));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectTruncatedDocument() {
+		final byte[] document = bytes("{\"name\": \"a\"}");
+		final byte[] truncated = new byte[document.length - 1];
+		System.arraycopy(document, 0, truncated, 0, truncated.length);
+		LazyResults.of(new JsonObject().put("raw_results", truncated));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectInvalidLength() {
+		LazyResults.of(new JsonObject().put("raw_results", new byte[] { 1, 0, 0, 0, 0 }));
+	}
+
+	@Test
+	public void shouldReadWrongTypesAsNullWithBothBackings() {
+		final LazyResults raw = LazyResults.of(new JsonObject()
+				.put("raw_results", bytes("{\"name\": 1, \"active\": \"yes\"}")));
+		final LazyResults json = LazyResults.of(new JsonObject().put("results", new JsonArray()
+				.add(new JsonObject().put("name", 1).put("active", "yes"))));
+		for (LazyResults results : new LazyResults[] { raw, json }) {
+			final LazyDocument document = results.get(0);
+			Assert.assertNull(document.getString("name"));
+			Assert.assertNull(document.getBoolean("active"));
+			Assert.assertNull(document.getString("missing"));
+		}
+	}
+
+	private static byte[] bytes(String json) {
+		final ByteBuf buffer = RawBsonDocument.parse(json).getByteBuffer();
+		final byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+}
@@ -0,0 +1,68 @@
+package fr.wseduc.mongodb.integration;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.regex.Pattern;
+
+import com.mongodb.client.model.Filters;
+import io.vertx.core.json.JsonObject;
+import org.bson.BsonBinary;
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.bson.conversions.Bson;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+import org.bson.types.Decimal128;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+import fr.wseduc.mongodb.BsonJsonConverter;
+import fr.wseduc.mongodb.MongoQueryBuilder;
+import junit.framework.Assert;
+
+public class MongoQueryBuilderTest {
+
+	private static final JsonWriterSettings STRICT = JsonWriterSettings.builder()
+			.outputMode(JsonMode.STRICT)
+			.build();
+
+	private static JsonObject throughJson(Bson query) {
+		return new JsonObject(query.toBsonDocument().toJson(STRICT));
+	}
+
+	@Test
+	public void shouldBuildLikeStrictJson() {
+		final Bson query = Filters.and(
+				Filters.or(
+						Filters.eq("owner.userId", "7b4e1c2a"),
+						Filters.in("shared.groupId", Arrays.asList("g1", "g2")),
+						Filters.elemMatch("shared", Filters.eq("read", true))),
+				Filters.gte("modified", new Date(1700000000000L)),
+				Filters.gte("created", new Date(0L)),
+				Filters.lt("size", 4294967296L),
+				Filters.lt("small", 12L),
+				Filters.eq("ratio", 0.5d),
+				Filters.eq("count", 3),
+				Filters.ne("_id", new ObjectId("5f1e0c9b8a7d6e5f4c3b2a19")),
+				Filters.regex("name", Pattern.compile("^rep", Pattern.CASE_INSENSITIVE)),
+				Filters.exists("deleted", false),
+				Filters.eq("nothing", null),
+				Filters.eq("price", Decimal128.parse("12.50")),
+				Filters.eq("hash", new BsonBinary(new byte[] {1, 2, 3})),
+				Filters.eq("ts", new BsonTimestamp(1700000000, 7)));
+		Assert.assertEquals(throughJson(query), MongoQueryBuilder.build(query));
+	}
+
+	@Test
+	public void shouldKeepNumberTypes() {
+		final BsonDocument document = BsonDocument.parse(
+				"{\"i\": 1, \"l\": {\"$numberLong\": \"2\"}, \"d\": 1.5, \"a\": [1, {\"b\": true}]}");
+		final JsonObject converted = BsonJsonConverter.toJsonObject(document);
+		final JsonObject parsed = new JsonObject(document.toJson(STRICT));
+		Assert.assertEquals(parsed, converted);
+		Assert.assertEquals(Integer.class, converted.getValue("i").getClass());
+		Assert.assertEquals(Double.class, converted.getValue("d").getClass());
+		Assert.assertEquals("2", converted.getJsonObject("l").getString("$numberLong"));
+	}
+
+}
@@ -0,0 +1,109 @@
+package fr.wseduc.mongodb.integration;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import fr.wseduc.mongodb.PojoMapper;
+import junit.framework.Assert;
+
+public class PojoMapperTest {
+
+	public static class MongoDate {
+		@JsonProperty("$date")
+		public String date;
+	}
+
+	public static class Group {
+		public String name;
+		public long size;
+	}
+
+	public static class User {
+		public String login;
+		public int age;
+		public double score;
+		public boolean active;
+		public MongoDate created;
+		public Instant modified;
+		public byte[] avatar;
+		public List<String> tags;
+		public List<Group> groups;
+		public Map<String, Object> preferences;
+	}
+
+	@Test
+	public void shouldMapNestedObjectsAndArrays() {
+		final JsonObject document = new JsonObject()
+				.put("_id", "id1")
+				.put("login", "jdupont")
+				.put("age", 42)
+				.put("score", 12)
+				.put("active", true)
+				.put("tags", new JsonArray().add("a").add("b"))
+				.put("groups", new JsonArray()
+						.add(new JsonObject().put("name", "teachers").put("size", 3000000000L).put("type", "g"))
+						.add(new JsonObject().put("name", "class-6a").put("size", 25)))
+				.put("preferences", new JsonObject().put("theme", "dark")
+						.put("widgets", new JsonArray().add(new JsonObject().put("id", 1))));
+		final User user = PojoMapper.mapTo(document, User.class);
+		Assert.assertEquals("jdupont", user.login);
+		Assert.assertEquals(42, user.age);
+		Assert.assertEquals(12.0, user.score, 0.0);
+		Assert.assertTrue(user.active);
+		Assert.assertEquals(Arrays.asList("a", "b"), user.tags);
+		Assert.assertEquals(2, user.groups.size());
+		Assert.assertEquals(3000000000L, user.groups.get(0).size);
+		Assert.assertEquals("class-6a", user.groups.get(1).name);
+		Assert.assertEquals("dark", user.preferences.get("theme"));
+		Assert.assertTrue(user.preferences.get("widgets") instanceof List);
+	}
+
+	@Test
+	public void shouldMapDatesAndBinaries() {
+		final Instant modified = Instant.parse("2023-11-14T22:13:20.123Z");
+		final JsonObject document = new JsonObject()
+				.put("created", new JsonObject().put("$date", "2023-11-14T22:13:20.123Z"))
+				.put("modified", modified)
+				.put("avatar", new byte[] { 1, 2, 3 });
+		final User user = PojoMapper.mapTo(document, User.class);
+		Assert.assertEquals("2023-11-14T22:13:20.123Z", user.created.date);
+		Assert.assertEquals(modified, user.modified);
+		Assert.assertTrue(Arrays.equals(new byte[] { 1, 2, 3 }, user.avatar));
+	}
+
+	@Test
+	public void shouldIgnoreUnknownFieldsAndNulls() {
+		final JsonObject document = new JsonObject()
+				.put("_id", new JsonObject().put("$oid", "5f1d7c1e9b1e8a3d4c2b1a00"))
+				.put("unknown", new JsonArray().add(new JsonObject().put("deep", new JsonArray().add(1))))
+				.putNull("login")
+				.put("age", 7);
+		final User user = PojoMapper.mapTo(document, User.class);
+		Assert.assertNull(user.login);
+		Assert.assertEquals(7, user.age);
+		Assert.assertNull(PojoMapper.mapTo((JsonObject) null, User.class));
+	}
+
+	@Test
+	public void shouldMapArrayOfDocuments() {
+		final List<Group> groups = PojoMapper.mapTo(new JsonArray()
+				.add(new JsonObject().put("name", "a"))
+				.add(new JsonObject().put("name", "b")), Group.class);
+		Assert.assertEquals(2, groups.size());
+		Assert.assertEquals("b", groups.get(1).name);
+	}
+
+	@Test(expected = DecodeException.class)
+	public void shouldFailOnMismatchingType() {
+		PojoMapper.mapTo(new JsonObject().put("age", new JsonObject().put("years", 3)), User.class);
+	}
+
+}
@@ -0,0 +1,78 @@
+package fr.wseduc.mongodb.integration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import fr.wseduc.mongodb.MongoDb;
+import fr.wseduc.mongodb.MongoPreparedRequest;
+import junit.framework.Assert;
+
+public class PreparedRequestTest {
+
+	private final MongoDb mongo = MongoDb.getInstance();
+
+	@Test
+	public void shouldBindParameters() {
+		final JsonObject matcher = new JsonObject()
+				.put("owner", MongoPreparedRequest.param(0))
+				.put("status", "published")
+				.put("$or", new JsonArray()
+						.add(new JsonObject().put("shared", MongoPreparedRequest.param(1)))
+						.add(new JsonObject().put("public", true)));
+		final MongoPreparedRequest request = mongo.prepareFind("posts", matcher, new JsonObject().put("modified", -1), null);
+		Assert.assertEquals(2, request.getParameterCount());
+		final JsonObject bound = request.bind("u1", new JsonArray().add("g1"));
+		Assert.assertEquals("find", bound.getString("action"));
+		Assert.assertEquals("posts", bound.getString("collection"));
+		Assert.assertEquals(new JsonObject()
+				.put("owner", "u1")
+				.put("status", "published")
+				.put("$or", new JsonArray()
+						.add(new JsonObject().put("shared", new JsonArray().add("g1")))
+						.add(new JsonObject().put("public", true))), bound.getJsonObject("matcher"));
+		Assert.assertEquals("u2", request.bind("u2", null).getJsonObject("matcher").getString("owner"));
+	}
+
+	@Test
+	public void shouldShareStaticParts() {
+		final JsonObject statics = new JsonObject().put("status", "published");
+		final MongoPreparedRequest request = mongo.prepareCount("posts", new JsonObject()
+				.put("owner", MongoPreparedRequest.param(0)).put("meta", statics));
+		final JsonObject first = request.bind("u1").getJsonObject("matcher");
+		final JsonObject second = request.bind("u2").getJsonObject("matcher");
+		Assert.assertSame(first.getJsonObject("meta"), second.getJsonObject("meta"));
+		Assert.assertEquals("u2", second.getString("owner"));
+	}
+
+	@Test
+	public void shouldKeepMatcherWithoutPlaceholder() {
+		final JsonObject matcher = new JsonObject().put("_id", "id1");
+		final MongoPreparedRequest request = mongo.prepareFindOne("posts", matcher, null);
+		Assert.assertEquals(0, request.getParameterCount());
+		Assert.assertEquals(matcher, request.bind().getJsonObject("matcher"));
+	}
+
+	@Test
+	public void shouldReplyBindingErrorsToCallback() {
+		final MongoPreparedRequest request = mongo.prepareFindOne("posts",
+				new JsonObject().put("_id", MongoPreparedRequest.param(1)), null);
+		final List<Message<JsonObject>> replies = new ArrayList<>();
+		mongo.execute(request, replies::add, "only one");
+		mongo.execute(request, replies::add, "a", new Object());
+		Assert.assertEquals(2, replies.size());
+		for (Message<JsonObject> reply : replies) {
+			Assert.assertEquals("error", reply.body().getString("status"));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectNegativeIndex() {
+		MongoPreparedRequest.param(-1);
+	}
+
+}
@@ -0,0 +1,127 @@
+package fr.wseduc.mongodb.integration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.wseduc.mongodb.MongoDb;
+import junit.framework.Assert;
+
+public class WriteCoalescingTest {
+
+	private static final String ADDRESS = "test.coalescing.persistor";
+
+	private Vertx vertx;
+	private MongoDb mongo;
+	private final List<JsonObject> requests = new CopyOnWriteArrayList<>();
+	private final Map<Object, JsonObject> stored = new ConcurrentHashMap<>();
+
+	@Before
+	public void setUp() {
+		vertx = Vertx.vertx();
+		vertx.eventBus().<JsonObject>localConsumer(ADDRESS, message -> {
+			requests.add(message.body());
+			message.reply(insert(message.body()));
+		});
+		mongo = MongoDb.getInstance();
+		mongo.init(vertx.eventBus(), ADDRESS);
+	}
+
+	@After
+	public void tearDown() {
+		mongo.disableWriteCoalescing();
+		vertx.close();
+	}
+
+	@Test
+	public void shouldWriteLoneDocumentWhenWindowExpires() throws InterruptedException {
+		mongo.enableWriteCoalescing(vertx, 10L, 10);
+		assertSingleInsert();
+	}
+
+	@Test
+	public void shouldWriteDocumentWhenBatchOfOneIsFull() throws InterruptedException {
+		mongo.enableWriteCoalescing(vertx, 10000L, 1);
+		assertSingleInsert();
+	}
+
+	@Test
+	public void shouldReplyOwnResultWhenOneDocumentOfBatchFails() throws InterruptedException {
+		mongo.enableWriteCoalescing(vertx, 10000L, 3);
+		final CountDownLatch latch = new CountDownLatch(3);
+		final Map<String, JsonObject> replies = new ConcurrentHashMap<>();
+		for (String name : new String[] { "a", "invalid", "c" }) {
+			mongo.insert("coalesced", new JsonObject().put("name", name), message -> {
+				replies.put(name, message.body());
+				latch.countDown();
+			});
+		}
+		Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+		Assert.assertTrue(requests.get(0).getBoolean("multiple"));
+		Assert.assertEquals("ok", replies.get("a").getString("status"));
+		Assert.assertEquals("ok", replies.get("c").getString("status"));
+		Assert.assertEquals("error", replies.get("invalid").getString("status"));
+		Assert.assertEquals(2, stored.size());
+		Assert.assertEquals("a", stored.get(replies.get("a").getValue("_id")).getString("name"));
+		Assert.assertEquals("c", stored.get(replies.get("c").getValue("_id")).getString("name"));
+	}
+
+	@Test
+	public void shouldNotCoalesceDocumentWithId() throws InterruptedException {
+		mongo.enableWriteCoalescing(vertx, 10000L, 10);
+		final CountDownLatch latch = new CountDownLatch(1);
+		mongo.insert("coalesced", new JsonObject().put("_id", "given").put("name", "a"), message -> latch.countDown());
+		Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals("given", requests.get(0).getJsonObject("document").getString("_id"));
+	}
+
+	/**
+	 * Writes the documents in order like the persistor, stopping at the first failing one.
+	 */
+	private JsonObject insert(JsonObject request) {
+		final List<JsonObject> documents = new ArrayList<>();
+		if (request.getBoolean("multiple", false)) {
+			request.getJsonArray("documents").forEach(document -> documents.add((JsonObject) document));
+		} else {
+			documents.add(request.getJsonObject("document"));
+		}
+		for (JsonObject document : documents) {
+			final Object id = document.getValue("_id");
+			if ("invalid".equals(document.getString("name"))) {
+				return new JsonObject().put("status", "error").put("message", "Document failed validation");
+			}
+			if (stored.putIfAbsent(id, document) != null) {
+				return new JsonObject().put("status", "error").put("message",
+						"E11000 duplicate key error collection: test.coalesced index: _id_ dup key: { _id: \"" + id + "\" }");
+			}
+		}
+		return new JsonObject().put("status", "ok");
+	}
+
+	private void assertSingleInsert() throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(1);
+		final List<JsonObject> replies = new CopyOnWriteArrayList<>();
+		mongo.insert("coalesced", new JsonObject().put("name", "a"), message -> {
+			replies.add(message.body());
+			latch.countDown();
+		});
+		Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals(1, requests.size());
+		final JsonObject request = requests.get(0);
+		Assert.assertEquals("insert", request.getString("action"));
+		Assert.assertEquals("a", request.getJsonObject("document").getString("name"));
+		Assert.assertEquals("ok", replies.get(0).getString("status"));
+		Assert.assertEquals(request.getJsonObject("document").getValue("_id"), replies.get(0).getValue("_id"));
+	}
+
+}